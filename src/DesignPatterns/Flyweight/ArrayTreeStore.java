@@ -0,0 +1,153 @@
+package DesignPatterns.Flyweight;
+
+import java.util.Arrays;
+
+/**
+ * Column-oriented in-heap tree store: one primitive array per field instead
+ * of one object per tree.
+ */
+public class ArrayTreeStore implements TreeStore {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final TreeTypeTable types = new TreeTypeTable();
+    private int[] xs;
+    private int[] ys;
+    private short[] typeIds;
+    private byte[] sizes;
+    private int size;
+    private int removed;
+
+    public ArrayTreeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ArrayTreeStore(int initialCapacity) {
+        xs = new int[initialCapacity];
+        ys = new int[initialCapacity];
+        typeIds = new short[initialCapacity];
+        sizes = new byte[initialCapacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int liveCount() {
+        return size - removed;
+    }
+
+    @Override
+    public int getX(int index) {
+        return xs[index];
+    }
+
+    @Override
+    public int getY(int index) {
+        return ys[index];
+    }
+
+    @Override
+    public int getTypeId(int index) {
+        return typeIds[index];
+    }
+
+    @Override
+    public ForestSize getForestSize(int index) {
+        return ForestSize.of(sizes[index]);
+    }
+
+    @Override
+    public ITreeType getType(int typeId) {
+        return types.get(typeId);
+    }
+
+    @Override
+    public int getTypeCount() {
+        return types.size();
+    }
+
+    @Override
+    public int add(int x, int y, ITreeType type, ForestSize forestSize) {
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        typeIds[size] = (short) types.idOf(type);
+        sizes[size] = (byte) forestSize.ordinal();
+        return size++;
+    }
+
+    @Override
+    public void remove(int index) {
+        if (typeIds[index] != REMOVED) {
+            typeIds[index] = REMOVED;
+            removed++;
+        }
+    }
+
+    @Override
+    public int typeIdOf(ITreeType type) {
+        return types.idOf(type);
+    }
+
+    @Override
+    public void releaseType(ITreeType type) {
+        types.release(type);
+    }
+
+    @Override
+    public int reserve(int count) {
+        ensureCapacity(size + count);
+        return size;
+    }
+
+    @Override
+    public void set(int index, int x, int y, int typeId, ForestSize forestSize) {
+        xs[index] = x;
+        ys[index] = y;
+        typeIds[index] = (short) typeId;
+        sizes[index] = (byte) forestSize.ordinal();
+    }
+
+    @Override
+    public void commit(int count) {
+        for (int i = size, end = size + count; i < end; i++) {
+            if (typeIds[i] == REMOVED) {
+                removed++;
+            }
+        }
+        size += count;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= xs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, xs.length + (xs.length >> 1));
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        typeIds = Arrays.copyOf(typeIds, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+    }
+
+    public void trimToSize() {
+        xs = Arrays.copyOf(xs, size);
+        ys = Arrays.copyOf(ys, size);
+        typeIds = Arrays.copyOf(typeIds, size);
+        sizes = Arrays.copyOf(sizes, size);
+    }
+
+    @Override
+    public long retainedBytes() {
+        return arrayBytes(xs.length, Integer.BYTES)
+                + arrayBytes(ys.length, Integer.BYTES)
+                + arrayBytes(typeIds.length, Short.BYTES)
+                + arrayBytes(sizes.length, Byte.BYTES);
+    }
+
+    // 16-byte array header, padded to the 8-byte object alignment of a 64-bit VM
+    static long arrayBytes(long length, int elementSize) {
+        return (16 + length * elementSize + 7) & ~7L;
+    }
+}
@@ -5,8 +5,26 @@ import java.awt.Graphics;
 
 public class BasicTreeType implements ITreeType {
    Color color;
+    // The key the type was created for, if any, so it can be saved and looked up again
+    private final String name;
+    private final String otherTreeData;
+
     public BasicTreeType(Color color) {
+        this(null, color, null);
+    }
+
+    public BasicTreeType(String name, Color color, String otherTreeData) {
+        this.name = name;
         this.color = color;
+        this.otherTreeData = otherTreeData;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOtherTreeData() {
+        return otherTreeData;
     }
 
     @Override
@@ -6,39 +6,41 @@ import java.awt.Color;
 public class Demo {
     static int CANVAS_SIZE = 500;
     static int TREES_TO_DRAW = 1000000;
-    static int TREE_TYPES = 2;
+
+    // Tree object: 12-byte header + x, y, type ref, size ref (compressed oops), padded to 8
+    static int TREE_OBJECT_BYTES = 32;
+    static int REFERENCE_BYTES = 4;
 
     public static void main(String[] args) {
-        Forest forest = new Forest();
-        for (int i = 0; i < Math.floor(TREES_TO_DRAW / TREE_TYPES); i++) {
-            ITreeType type = TreeTypeFactory.getTreeType(
-                    "Summer Oak", Color.GREEN, "Oak texture stub"
-            );
-
-            forest.plantTree(random(0, CANVAS_SIZE), random(0, CANVAS_SIZE),
-                    type, ForestSize.SOUTH);
-
-            ITreeType anotherType = TreeTypeFactory.getTreeType(
-                    "Autumn Oak", Color.ORANGE, "Autumn Oak texture stub"
-            );
-
-            forest.plantTree(random(0, CANVAS_SIZE), random(0, CANVAS_SIZE),
-                    anotherType, ForestSize.MIDDLE);
-        }
+        Forest forest = new Forest(new ArrayTreeStore(TREES_TO_DRAW));
+        ITreeType type = TreeTypeFactory.getTreeType(
+                "Summer Oak", Color.GREEN, "Oak texture stub"
+        );
+        ITreeType anotherType = TreeTypeFactory.getTreeType(
+                "Autumn Oak", Color.ORANGE, "Autumn Oak texture stub"
+        );
+
+        long plantStart = System.nanoTime();
+        forest.plantRandomTrees(TREES_TO_DRAW, CANVAS_SIZE + 1, CANVAS_SIZE + 1,
+                new ITreeType[]{type, anotherType},
+                new ForestSize[]{ForestSize.SOUTH, ForestSize.MIDDLE}, System.nanoTime());
+        long plantMillis = (System.nanoTime() - plantStart) / 1000000;
         forest.setSize(CANVAS_SIZE, CANVAS_SIZE);
         forest.setVisible(true);
 
-        System.out.println(TREES_TO_DRAW + " trees drawn");
+        int trees = forest.getTreeCount();
+        long columnBytes = forest.getStore().retainedBytes();
+        long objectBytes = (long) trees * TREE_OBJECT_BYTES
+                + ArrayTreeStore.arrayBytes(trees, REFERENCE_BYTES);
+
+        System.out.println(trees + " trees drawn, planted in " + plantMillis + " ms");
         System.out.println("---------------------");
         System.out.println("Memory usage:");
-        System.out.println("Tree size (8 bytes) * " + TREES_TO_DRAW);
-        System.out.println("+ TreeTypes size (~30 bytes) * " + TREE_TYPES + "");
+        System.out.println("Columns x, y (4 bytes) + type id (2 bytes) + size (1 byte) * " + trees);
+        System.out.println("+ TreeTypes (shared) * " + forest.getStore().getTypeCount());
+        System.out.println("TreeTypeFactory lookups: " + TreeTypeFactory.getRegistry());
         System.out.println("---------------------");
-        System.out.println("Total: " + ((TREES_TO_DRAW * 8 + TREE_TYPES * 30) / 1024 / 1024) +
-                "MB (instead of " + ((TREES_TO_DRAW * 38) / 1024 / 1024) + "MB)");
-    }
-
-    private static int random(int min, int max) {
-        return min + (int) (Math.random() * ((max - min) + 1));
+        System.out.println("Total: " + columnBytes / 1024 / 1024 + "MB (instead of "
+                + objectBytes / 1024 / 1024 + "MB for one Tree object per tree)");
     }
 }
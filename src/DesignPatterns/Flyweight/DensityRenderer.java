@@ -0,0 +1,97 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Level-of-detail rendering for forests too dense for per-tree drawing to
+ * be visible. One pass over the trees accumulates, per pixel, the number of
+ * trees anchored there and the dominant type (a Boyer-Moore majority vote,
+ * so one candidate and one counter per pixel). The raster then shades each
+ * pixel with its dominant type's color, from the background at zero trees
+ * to full color at {@link #SATURATION} trees.
+ */
+class DensityRenderer {
+    static final int SATURATION = 4;
+
+    private final TreeStore store;
+    private BufferedImage frame;
+    private int[] counts = new int[0];
+    private int[] candidates = new int[0];
+    private int[] votes = new int[0];
+    private int[] typeColors = new int[0];
+    private Color background = Color.WHITE;
+
+    DensityRenderer(TreeStore store) {
+        this.store = store;
+    }
+
+    void setBackground(Color background) {
+        this.background = background;
+    }
+
+    /**
+     * Renders every tree into a frame of the given size. The returned image
+     * is reused by the next call with the same size.
+     */
+    BufferedImage render(int width, int height) {
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            counts = new int[width * height];
+            candidates = new int[width * height];
+            votes = new int[width * height];
+        }
+        int typeCount = store.getTypeCount();
+        if (typeColors.length < typeCount) {
+            typeColors = new int[typeCount];
+        }
+        for (int t = 0; t < typeCount; t++) {
+            ITreeType type = store.getType(t);
+            Color color = type == null ? null : type.getColor();
+            typeColors[t] = color == null ? 0 : color.getRGB();
+        }
+
+        Arrays.fill(counts, 0);
+        Arrays.fill(votes, 0);
+        for (int i = 0, n = store.size(); i < n; i++) {
+            int typeId = store.getTypeId(i);
+            int x = store.getX(i);
+            int y = store.getY(i);
+            if (typeId == TreeStore.REMOVED || x < 0 || y < 0 || x >= width || y >= height) {
+                continue;
+            }
+            int pixel = y * width + x;
+            counts[pixel]++;
+            if (votes[pixel] == 0) {
+                candidates[pixel] = typeId;
+                votes[pixel] = 1;
+            } else if (candidates[pixel] == typeId) {
+                votes[pixel]++;
+            } else {
+                votes[pixel]--;
+            }
+        }
+
+        int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        int back = background.getRGB();
+        for (int p = 0; p < pixels.length; p++) {
+            int count = counts[p];
+            if (count == 0) {
+                pixels[p] = back;
+                continue;
+            }
+            // A zero vote means a tie; the last candidate still names one of the tied types.
+            pixels[p] = blend(back, typeColors[candidates[p]], Math.min(count, SATURATION));
+        }
+        return frame;
+    }
+
+    private static int blend(int from, int to, int weight) {
+        int r = ((from >> 16 & 0xFF) * (SATURATION - weight) + (to >> 16 & 0xFF) * weight) / SATURATION;
+        int g = ((from >> 8 & 0xFF) * (SATURATION - weight) + (to >> 8 & 0xFF) * weight) / SATURATION;
+        int b = ((from & 0xFF) * (SATURATION - weight) + (to & 0xFF) * weight) / SATURATION;
+        return r << 16 | g << 8 | b;
+    }
+}
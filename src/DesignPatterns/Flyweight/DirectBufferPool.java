@@ -0,0 +1,33 @@
+package DesignPatterns.Flyweight;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reusable direct I/O buffers, so repeated imports and exports do not pay
+ * for allocating (and later freeing) native memory each time.
+ */
+final class DirectBufferPool {
+    static final int BUFFER_BYTES = 1 << 20;
+    private static final int MAX_POOLED = 8;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private DirectBufferPool() {
+    }
+
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    static void release(ByteBuffer buffer) {
+        if (pool.size() < MAX_POOLED) {
+            pool.offer(buffer);
+        }
+    }
+}
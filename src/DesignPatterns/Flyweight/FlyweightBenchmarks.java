@@ -0,0 +1,204 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Measured memory and throughput numbers for the flyweight forest, printed
+ * as JSON (or written to the file given as the first argument).
+ *
+ * Memory is the heap delta after GC around building each layout. Throughput
+ * runs each operation for a few warmup iterations and then reports the mean
+ * of the measured iterations, in the spirit of a JMH average-time run.
+ *
+ * Run headless with a fixed heap, e.g.
+ * {@code java -Djava.awt.headless=true -Xms2g -Xmx2g DesignPatterns.Flyweight.FlyweightBenchmarks}.
+ */
+public class FlyweightBenchmarks {
+    static int TREES = 1000000;
+    static int CANVAS_SIZE = 500;
+    static int DISTINCT_TYPES = 10000;
+    static int LOOKUPS = 1000000;
+    static int PAINTED_TREES = 100000;
+    static int WARMUP_ITERATIONS = 3;
+    static int MEASURED_ITERATIONS = 5;
+
+    // Old Tree layout: one object per tree holding all of its extrinsic state.
+    private static final class ObjectTree {
+        final int x;
+        final int y;
+        final ITreeType type;
+        final ForestSize forestSize;
+
+        ObjectTree(int x, int y, ITreeType type, ForestSize forestSize) {
+            this.x = x;
+            this.y = y;
+            this.type = type;
+            this.forestSize = forestSize;
+        }
+    }
+
+    private static final ITreeType OAK = new BasicTreeType(Color.GREEN);
+    private static final ITreeType AUTUMN_OAK = new BasicTreeType(Color.ORANGE);
+    private static final ITreeType[] TYPES = {OAK, AUTUMN_OAK};
+    private static final ForestSize[] SIZES = {ForestSize.SOUTH, ForestSize.MIDDLE};
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("trees", TREES);
+        results.put("memory", measureMemory());
+        results.put("throughput", measureThroughput());
+
+        String json = toJson(results, "") + System.lineSeparator();
+        if (args.length > 0) {
+            Path out = Paths.get(args[0]);
+            Files.writeString(out, json);
+            System.out.println("Results written to " + out.toAbsolutePath());
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    private static Map<String, Object> measureMemory() {
+        Map<String, Object> memory = new LinkedHashMap<>();
+        long objects = MemoryMeter.retainedBytes(() -> {
+            SplittableRandom random = new SplittableRandom(1);
+            List<ObjectTree> trees = new ArrayList<>(TREES);
+            for (int i = 0; i < TREES; i++) {
+                trees.add(new ObjectTree(random.nextInt(CANVAS_SIZE), random.nextInt(CANVAS_SIZE),
+                        TYPES[i % TYPES.length], SIZES[i % SIZES.length]));
+            }
+            return trees;
+        });
+        long columns = MemoryMeter.retainedBytes(() -> {
+            ArrayTreeStore store = new ArrayTreeStore(TREES);
+            ForestPlanter.plantRandom(store, TREES, CANVAS_SIZE, CANVAS_SIZE, TYPES, SIZES, 1);
+            return store;
+        });
+        memory.put("objectPerTreeBytes", objects);
+        memory.put("objectPerTreeBytesPerTree", (double) objects / TREES);
+        memory.put("columnStoreBytes", columns);
+        memory.put("columnStoreBytesPerTree", (double) columns / TREES);
+
+        long treeFactory = MemoryMeter.retainedBytes(() -> {
+            for (int i = 0; i < DISTINCT_TYPES; i++) {
+                TreeFactory.getTreeType("Tree " + i, new Color(i), "Texture " + i, false, 0);
+            }
+            return TreeFactory.getRegistry();
+        });
+        long treeTypeFactory = MemoryMeter.retainedBytes(() -> {
+            for (int i = 0; i < DISTINCT_TYPES; i++) {
+                TreeTypeFactory.getTreeType("Tree " + i, new Color(i), "Texture " + i);
+            }
+            return TreeTypeFactory.getRegistry();
+        });
+        memory.put("distinctTypes", DISTINCT_TYPES);
+        memory.put("treeFactoryBytesPerType", (double) treeFactory / DISTINCT_TYPES);
+        memory.put("treeTypeFactoryBytesPerType", (double) treeTypeFactory / DISTINCT_TYPES);
+        return memory;
+    }
+
+    private static Map<String, Object> measureThroughput() {
+        Map<String, Object> throughput = new LinkedHashMap<>();
+
+        throughput.put("plantTreeLoop", run(TREES, () -> {
+            ArrayTreeStore store = new ArrayTreeStore();
+            SplittableRandom random = new SplittableRandom(1);
+            for (int i = 0; i < TREES; i++) {
+                store.add(random.nextInt(CANVAS_SIZE), random.nextInt(CANVAS_SIZE),
+                        TYPES[i % TYPES.length], SIZES[i % SIZES.length]);
+            }
+        }));
+        throughput.put("plantRandomBulk", run(TREES, () -> {
+            ArrayTreeStore store = new ArrayTreeStore();
+            ForestPlanter.plantRandom(store, TREES, CANVAS_SIZE, CANVAS_SIZE, TYPES, SIZES, 1);
+        }));
+
+        TreeFactory.getTreeType("Summer Oak", Color.GREEN, "Oak texture stub", false, 0);
+        TreeTypeFactory.getTreeType("Summer Oak", Color.GREEN, "Oak texture stub");
+        throughput.put("treeFactoryLookup", run(LOOKUPS, () -> {
+            for (int i = 0; i < LOOKUPS; i++) {
+                TreeFactory.getTreeType("Summer Oak", Color.GREEN, "Oak texture stub", false, 0);
+            }
+        }));
+        throughput.put("treeTypeFactoryLookup", run(LOOKUPS, () -> {
+            for (int i = 0; i < LOOKUPS; i++) {
+                TreeTypeFactory.getTreeType("Summer Oak", Color.GREEN, "Oak texture stub");
+            }
+        }));
+
+        TreeStore forest = ForestPaintBenchmark.plantForest(PAINTED_TREES, CANVAS_SIZE);
+        BufferedImage frame = new BufferedImage(CANVAS_SIZE, CANVAS_SIZE, BufferedImage.TYPE_INT_RGB);
+        ForestPainter painter = new ForestPainter(forest);
+        painter.setUseSprites(false);
+        throughput.put("paintDrawCalls", run(PAINTED_TREES, () -> paint(painter, frame)));
+        painter.setUseSprites(true);
+        throughput.put("paintSprites", run(PAINTED_TREES, () -> paint(painter, frame)));
+        return throughput;
+    }
+
+    private static void paint(ForestPainter painter, BufferedImage frame) {
+        Graphics2D g = frame.createGraphics();
+        painter.paint(g, frame.getWidth(), frame.getHeight());
+        g.dispose();
+    }
+
+    /**
+     * Times {@code operation}, which performs {@code operations} units of work per call.
+     */
+    private static Map<String, Object> run(int operations, Runnable operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long[] nanos = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (long n : nanos) {
+            total += n;
+            best = Math.min(best, n);
+        }
+        double meanMillis = total / 1e6 / MEASURED_ITERATIONS;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("operations", operations);
+        result.put("meanMillis", meanMillis);
+        result.put("bestMillis", best / 1e6);
+        result.put("opsPerSecond", operations / (meanMillis / 1000));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String toJson(Object value, String indent) {
+        if (value instanceof Map) {
+            StringBuilder json = new StringBuilder("{");
+            String inner = indent + "  ";
+            String separator = System.lineSeparator();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                json.append(separator).append(inner).append('"').append(entry.getKey()).append("\": ")
+                        .append(toJson(entry.getValue(), inner));
+                separator = "," + System.lineSeparator();
+            }
+            return json.append(System.lineSeparator()).append(indent).append('}').toString();
+        }
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.3f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -1,22 +1,189 @@
 package DesignPatterns.Flyweight;
 
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.Rectangle;
+import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.JFrame;
 
 public class Forest extends JFrame {
-    private List<Tree> trees = new ArrayList<>();
+    private final TreeStore store;
+    private final ForestPainter painter;
+    private final ForestBackBuffer backBuffer;
+    private final TreeTypePool typePool;
+    // Held while trees are planted or removed and while a frame paints, so
+    // threads feeding the forest never change the store or the back buffer
+    // under the event dispatch thread
+    private final Object treeLock = new Object();
+    // Types the pool evicted, released from the store the next time the
+    // lock is taken. The pool may evict while the caller holds another
+    // forest's lock, so its listener must not wait for this one.
+    private final Queue<ITreeType> evicted = new ConcurrentLinkedQueue<>();
+
+    public Forest() {
+        this(new ArrayTreeStore());
+    }
+
+    public Forest(TreeStore store) {
+        this(store, null);
+    }
+
+    /**
+     * Forest that reports the trees it plants and removes to {@code typePool},
+     * so pooled types are reclaimed once none of its trees use them. The
+     * store gives up its table slot for every type the pool evicts.
+     */
+    public Forest(TreeStore store, TreeTypePool typePool) {
+        this.store = store;
+        this.painter = new ForestPainter(store);
+        this.backBuffer = new ForestBackBuffer(store, painter);
+        this.typePool = typePool;
+        if (typePool != null) {
+            typePool.addEvictionListener(evicted::add);
+        }
+    }
 
     public void plantTree(int x, int y, ITreeType type, ForestSize forestSize) {
-        Tree tree = new Tree(x, y, type, forestSize);
-        trees.add(tree);
+        synchronized (treeLock) {
+            releaseEvicted();
+            store.add(x, y, type, forestSize);
+            if (typePool != null) {
+                typePool.retain(type, 1);
+            }
+        }
+    }
+
+    public void removeTree(int index) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            int typeId = store.getTypeId(index);
+            if (typeId == TreeStore.REMOVED) {
+                return;
+            }
+            ITreeType type = store.getType(typeId);
+            backBuffer.invalidate(type.getBounds(store.getX(index), store.getY(index), store.getForestSize(index)));
+            store.remove(index);
+            if (typePool != null) {
+                typePool.release(type, 1);
+            }
+        }
+    }
+
+    /**
+     * Plants one tree per coordinate pair, filling the store in parallel.
+     */
+    public void plantTrees(int[] xs, int[] ys, ITreeType type, ForestSize forestSize) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            ForestPlanter.plant(store, xs, ys, type, forestSize);
+            if (typePool != null) {
+                typePool.retain(type, xs.length);
+            }
+        }
+    }
+
+    /**
+     * Plants {@code count} trees at random positions in [0, width) x [0, height),
+     * cycling through {@code types} and {@code sizes}.
+     */
+    public void plantRandomTrees(int count, int width, int height, ITreeType[] types, ForestSize[] sizes, long seed) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            ForestPlanter.plantRandom(store, count, width, height, types, sizes, seed);
+            if (typePool != null) {
+                for (int t = 0; t < types.length; t++) {
+                    // Tree i gets types[i % types.length]
+                    typePool.retain(types[t], count / types.length + (t < count % types.length ? 1 : 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Plants every tree of a binary forest file, see {@link ForestWriter}.
+     */
+    public void plantFrom(ForestReader reader) throws IOException {
+        synchronized (treeLock) {
+            releaseEvicted();
+            if (typePool == null) {
+                reader.readInto(store);
+            } else {
+                reader.readInto(store, typePool);
+                ITreeType[] types = reader.getTypes();
+                long[] trees = reader.getTreesPerType();
+                for (int t = 0; t < types.length; t++) {
+                    typePool.retain(types[t], trees[t]);
+                }
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void releaseEvicted() {
+        for (ITreeType type; (type = evicted.poll()) != null; ) {
+            store.releaseType(type);
+        }
+    }
+
+    public int getTreeCount() {
+        return store.size();
+    }
+
+    public Tree getTree(int index) {
+        return new Tree(store, index);
+    }
+
+    public TreeStore getStore() {
+        return store;
+    }
+
+    /**
+     * Renders each frame offscreen in parallel tiles and draws it as one image.
+     */
+    public void setTiledRendering(boolean tiled) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            painter.setTiledRendering(tiled ? ForkJoinPool.commonPool() : null);
+            backBuffer.invalidateAll();
+        }
+    }
+
+    /**
+     * Paints a density map instead of individual trees while the window has
+     * fewer than {@code minPixelsPerTree} pixels per tree; 0 turns this off.
+     */
+    public void setLevelOfDetail(double minPixelsPerTree) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            painter.setLevelOfDetail(minPixelsPerTree);
+            backBuffer.invalidateAll();
+        }
+    }
+
+    /**
+     * Trees whose drawn area intersects {@code region}, in planting order.
+     */
+    public List<Tree> treesIn(Rectangle region) {
+        synchronized (treeLock) {
+            releaseEvicted();
+            return painter.treesIn(region);
+        }
     }
 
+    /**
+     * Paints from a back buffer that only redraws trees planted or removed
+     * since the previous frame. Trees planted or removed from other threads
+     * wait for the frame to finish.
+     */
     @Override
     public void paint(Graphics graphics) {
-        for (Tree tree : trees) {
-            tree.draw(graphics);
+        synchronized (treeLock) {
+            releaseEvicted();
+            backBuffer.setBackground(getBackground());
+            backBuffer.paint(graphics, getWidth(), getHeight());
         }
     }
 }
@@ -0,0 +1,97 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last rendered frame of a forest and brings it up to date
+ * incrementally. Trees planted since the last frame are drawn on top, which
+ * is where they belong in planting order. Areas invalidated by removed trees
+ * are cleared and repainted through the painter's clip-aware path. Only a
+ * resize or {@link #invalidateAll} re-renders the whole forest, as does
+ * every frame in level-of-detail mode, whose cost does not depend on how
+ * much changed.
+ *
+ * Not thread-safe: {@link Forest} only touches it, and the store behind
+ * it, while holding its tree lock.
+ */
+class ForestBackBuffer {
+    // Past this many pending regions they are merged into their bounding box
+    private static final int MAX_DIRTY_REGIONS = 16;
+
+    private final TreeStore store;
+    private final ForestPainter painter;
+    private final List<Rectangle> dirty = new ArrayList<>();
+    private BufferedImage buffer;
+    private Color background = Color.WHITE;
+    private boolean fullRepaint = true;
+    private int renderedTrees;
+
+    ForestBackBuffer(TreeStore store, ForestPainter painter) {
+        this.store = store;
+        this.painter = painter;
+    }
+
+    void setBackground(Color background) {
+        if (!background.equals(this.background)) {
+            this.background = background;
+            painter.setBackground(background);
+            invalidateAll();
+        }
+    }
+
+    void invalidate(Rectangle region) {
+        if (fullRepaint) {
+            return;
+        }
+        dirty.add(new Rectangle(region));
+        if (dirty.size() > MAX_DIRTY_REGIONS) {
+            Rectangle union = dirty.get(0);
+            for (Rectangle r : dirty) {
+                union.add(r);
+            }
+            dirty.clear();
+            dirty.add(union);
+        }
+    }
+
+    void invalidateAll() {
+        fullRepaint = true;
+        dirty.clear();
+    }
+
+    void paint(Graphics graphics, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height) {
+            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            invalidateAll();
+        }
+        int trees = store.size();
+        Graphics2D g = buffer.createGraphics();
+        g.setBackground(background);
+        if (fullRepaint || painter.usesLevelOfDetail(width, height)) {
+            g.clearRect(0, 0, width, height);
+            painter.paint(g, width, height);
+            fullRepaint = false;
+        } else {
+            for (Rectangle region : dirty) {
+                g.setClip(region);
+                g.clearRect(region.x, region.y, region.width, region.height);
+                painter.paint(g);
+            }
+            g.setClip(null);
+            painter.paintRange(g, renderedTrees, trees);
+        }
+        g.dispose();
+        dirty.clear();
+        renderedTrees = trees;
+        graphics.drawImage(buffer, 0, 0, null);
+    }
+}
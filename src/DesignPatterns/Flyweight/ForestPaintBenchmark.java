@@ -0,0 +1,81 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless comparison of painting a forest with per-tree draw calls versus
+ * pre-rendered sprites, of the parallel tiled renderer at increasing worker
+ * counts and of level-of-detail density rendering. Run with
+ * -Djava.awt.headless=true on servers.
+ */
+public class ForestPaintBenchmark {
+    static int CANVAS_SIZE = 500;
+    static int TREES_TO_DRAW = 1000000;
+    static int WARMUP_ROUNDS = 2;
+    static int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        TreeStore store = plantForest(TREES_TO_DRAW, CANVAS_SIZE);
+        BufferedImage frame = new BufferedImage(CANVAS_SIZE, CANVAS_SIZE, BufferedImage.TYPE_INT_RGB);
+
+        ForestPainter painter = new ForestPainter(store);
+        painter.setUseSprites(false);
+        double direct = measure(painter, frame);
+        painter.setUseSprites(true);
+        double sprites = measure(painter, frame);
+
+        System.out.println(store.size() + " trees on " + CANVAS_SIZE + "x" + CANVAS_SIZE);
+        System.out.printf("ITreeType.draw per tree: %.1f ms/frame%n", direct);
+        System.out.printf("Sprite blit per tree:    %.1f ms/frame%n", sprites);
+
+        painter.setLevelOfDetail(1);
+        System.out.printf("Density map (LOD):       %.1f ms/frame%n", measure(painter, frame));
+        painter.setLevelOfDetail(0);
+
+        for (int workers = 1; workers <= Runtime.getRuntime().availableProcessors(); workers *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            painter.setTiledRendering(pool);
+            System.out.printf("Tiled, %2d workers:       %.1f ms/frame%n", workers, measure(painter, frame));
+            pool.shutdown();
+        }
+    }
+
+    static TreeStore plantForest(int trees, int canvasSize) {
+        ITreeType[] types = {
+                new FruitTreeDecorator(TreeFactory.getTreeType("Summer Oak", Color.GREEN, "Oak texture stub", false, 0)),
+                new FruitTreeDecorator(TreeFactory.getTreeType("Apple", Color.RED, "Apple texture stub", true, 3)),
+        };
+        ForestSize[] sizes = {ForestSize.SOUTH, ForestSize.MIDDLE, ForestSize.NORTH};
+        ArrayTreeStore store = new ArrayTreeStore(trees);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < trees; i++) {
+            store.add(random.nextInt(canvasSize), random.nextInt(canvasSize),
+                    types[i % types.length], sizes[i % sizes.length]);
+        }
+        return store;
+    }
+
+    static double measure(ForestPainter painter, BufferedImage frame) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            paint(painter, frame);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            paint(painter, frame);
+        }
+        return (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+    }
+
+    private static void paint(ForestPainter painter, BufferedImage frame) {
+        Graphics2D g = frame.createGraphics();
+        g.setBackground(Color.WHITE);
+        g.clearRect(0, 0, frame.getWidth(), frame.getHeight());
+        painter.paint(g, frame.getWidth(), frame.getHeight());
+        g.dispose();
+    }
+}
@@ -0,0 +1,185 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Draws the trees of a store onto any Graphics, independent of the Swing
+ * frame, so the same code paints the window and offscreen images.
+ */
+class ForestPainter {
+    private final TreeStore store;
+    private final SpatialGrid grid = new SpatialGrid();
+    private final SpriteCache sprites;
+    private final IntList visible = new IntList();
+    private TiledRenderer tiledRenderer;
+    private final DensityRenderer densityRenderer;
+    private double minPixelsPerTree;
+    private Color background = Color.WHITE;
+    private boolean useSprites = true;
+    private int indexedTrees;
+    // Furthest any planted (type, size) pair paints from its anchor, indexed by typeId * sizes + size
+    private int[] reaches = new int[0];
+    // Type each reach was measured for, as a freed type id may be reused
+    private ITreeType[] reachTypes = new ITreeType[0];
+    private int maxReach;
+
+    ForestPainter(TreeStore store) {
+        this.store = store;
+        this.sprites = new SpriteCache(store);
+        this.densityRenderer = new DensityRenderer(store);
+    }
+
+    /**
+     * Background of the whole-frame images rendered for tiled and level-of-detail painting.
+     */
+    void setBackground(Color background) {
+        this.background = background;
+        densityRenderer.setBackground(background);
+        if (tiledRenderer != null) {
+            tiledRenderer.setBackground(background);
+        }
+    }
+
+    /**
+     * Switches {@link #paint(Graphics, int, int)} to density rendering while
+     * the view has fewer than {@code minPixelsPerTree} pixels per tree; 0 never does.
+     */
+    void setLevelOfDetail(double minPixelsPerTree) {
+        this.minPixelsPerTree = minPixelsPerTree;
+    }
+
+    boolean usesLevelOfDetail(int width, int height) {
+        return (double) width * height < minPixelsPerTree * store.liveCount();
+    }
+
+    void setUseSprites(boolean useSprites) {
+        this.useSprites = useSprites;
+    }
+
+    /**
+     * Renders whole frames offscreen on {@code pool} in {@link #paint(Graphics, int, int)},
+     * or paints directly again if {@code pool} is null.
+     */
+    void setTiledRendering(ForkJoinPool pool) {
+        tiledRenderer = pool == null ? null : new TiledRenderer(store, sprites, pool);
+        if (tiledRenderer != null) {
+            tiledRenderer.setBackground(background);
+        }
+    }
+
+    /**
+     * Trees whose drawn area intersects {@code region}, in planting order.
+     */
+    List<Tree> treesIn(Rectangle region) {
+        syncIndex();
+        IntList candidates = new IntList();
+        grid.query(region.x - maxReach, region.y - maxReach,
+                region.x + region.width + maxReach, region.y + region.height + maxReach, candidates);
+        List<Tree> trees = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            int index = candidates.get(i);
+            int typeId = store.getTypeId(index);
+            if (typeId == TreeStore.REMOVED) {
+                continue;
+            }
+            ITreeType type = store.getType(typeId);
+            if (type.getBounds(store.getX(index), store.getY(index), store.getForestSize(index)).intersects(region)) {
+                trees.add(new Tree(store, index));
+            }
+        }
+        return trees;
+    }
+
+    /**
+     * Paints a {@code width} x {@code height} view, as one image if tiled or
+     * level-of-detail rendering is on.
+     */
+    void paint(Graphics graphics, int width, int height) {
+        if (width > 0 && height > 0 && usesLevelOfDetail(width, height)) {
+            graphics.drawImage(densityRenderer.render(width, height), 0, 0, null);
+            return;
+        }
+        if (tiledRenderer == null || width <= 0 || height <= 0) {
+            paint(graphics);
+            return;
+        }
+        graphics.drawImage(tiledRenderer.render(width, height), 0, 0, null);
+    }
+
+    /**
+     * Draws the trees with indices in [from, to) in order, ignoring the clip.
+     */
+    void paintRange(Graphics graphics, int from, int to) {
+        if (useSprites) {
+            sprites.validate();
+        }
+        for (int i = from; i < to; i++) {
+            draw(graphics, i);
+        }
+    }
+
+    void paint(Graphics graphics) {
+        syncIndex();
+        if (useSprites) {
+            sprites.validate();
+        }
+        Rectangle clip = graphics.getClipBounds();
+        if (clip == null || grid.isWithin(clip.x - maxReach, clip.y - maxReach,
+                clip.x + clip.width + maxReach, clip.y + clip.height + maxReach)) {
+            for (int i = 0, n = store.size(); i < n; i++) {
+                draw(graphics, i);
+            }
+            return;
+        }
+        grid.query(clip.x - maxReach, clip.y - maxReach,
+                clip.x + clip.width + maxReach, clip.y + clip.height + maxReach, visible);
+        for (int v = 0, n = visible.size(); v < n; v++) {
+            draw(graphics, visible.get(v));
+        }
+    }
+
+    private void draw(Graphics graphics, int index) {
+        if (useSprites) {
+            sprites.draw(graphics, index);
+            return;
+        }
+        int typeId = store.getTypeId(index);
+        if (typeId != TreeStore.REMOVED) {
+            store.getType(typeId).draw(graphics, store.getX(index), store.getY(index), store.getForestSize(index));
+        }
+    }
+
+    // Indexes trees planted since the last paint or query.
+    private void syncIndex() {
+        int sizes = ForestSize.count();
+        for (int n = store.size(); indexedTrees < n; indexedTrees++) {
+            int typeId = store.getTypeId(indexedTrees);
+            if (typeId == TreeStore.REMOVED) {
+                continue;
+            }
+            int x = store.getX(indexedTrees);
+            int y = store.getY(indexedTrees);
+            grid.add(indexedTrees, x, y);
+
+            int key = typeId * sizes + store.getForestSize(indexedTrees).ordinal();
+            if (key >= reaches.length) {
+                reaches = Arrays.copyOf(reaches, Math.max(key + 1, reaches.length * 2));
+                reachTypes = Arrays.copyOf(reachTypes, reaches.length);
+            }
+            ITreeType type = store.getType(typeId);
+            if (reachTypes[key] != type) {
+                reachTypes[key] = type;
+                Rectangle bounds = type.getBounds(x, y, store.getForestSize(indexedTrees));
+                reaches[key] = 1 + Math.max(Math.max(x - bounds.x, bounds.x + bounds.width - x),
+                        Math.max(y - bounds.y, bounds.y + bounds.height - y));
+                maxReach = Math.max(maxReach, reaches[key]);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package DesignPatterns.Flyweight;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk planting: tree types are resolved once per batch and the store is
+ * filled in parallel chunks.
+ */
+final class ForestPlanter {
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private ForestPlanter() {
+    }
+
+    static void plant(TreeStore store, int[] xs, int[] ys, ITreeType type, ForestSize forestSize) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Got " + xs.length + " x and " + ys.length + " y coordinates");
+        }
+        int count = xs.length;
+        int typeId = store.typeIdOf(type);
+        int start = store.reserve(count);
+        IntStream.range(0, chunks(count)).parallel().forEach(chunk -> {
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(count, i + CHUNK_SIZE); i < end; i++) {
+                store.set(start + i, xs[i], ys[i], typeId, forestSize);
+            }
+        });
+        store.commit(count);
+    }
+
+    /**
+     * Plants {@code count} trees at random positions in [0, width) x [0, height).
+     * Tree i gets {@code types[i % types.length]} and {@code sizes[i % sizes.length]}.
+     * The result depends only on {@code seed}, not on the number of threads.
+     */
+    static void plantRandom(TreeStore store, int count, int width, int height,
+                            ITreeType[] types, ForestSize[] sizes, long seed) {
+        int[] typeIds = new int[types.length];
+        for (int t = 0; t < types.length; t++) {
+            typeIds[t] = store.typeIdOf(types[t]);
+        }
+        SplittableRandom[] randoms = new SplittableRandom[chunks(count)];
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int c = 0; c < randoms.length; c++) {
+            randoms[c] = root.split();
+        }
+        int start = store.reserve(count);
+        IntStream.range(0, randoms.length).parallel().forEach(chunk -> {
+            SplittableRandom random = randoms[chunk];
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(count, i + CHUNK_SIZE); i < end; i++) {
+                store.set(start + i, random.nextInt(width), random.nextInt(height),
+                        typeIds[i % typeIds.length], sizes[i % sizes.length]);
+            }
+        });
+        store.commit(count);
+    }
+
+    private static int chunks(int count) {
+        return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+}
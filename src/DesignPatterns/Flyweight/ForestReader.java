@@ -0,0 +1,172 @@
+package DesignPatterns.Flyweight;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.UnaryOperator;
+
+/**
+ * Streams a file written by {@link ForestWriter} straight into a tree
+ * store, decoding records from a pooled direct buffer without creating an
+ * object per tree.
+ */
+public class ForestReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean endOfFile;
+    private boolean closed;
+    private ITreeType[] types = new ITreeType[0];
+    private long[] treesPerType = new long[0];
+
+    public ForestReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        // Only once the file is open, so a failed open leaks no pooled buffer
+        buffer = DirectBufferPool.acquire();
+        buffer.flip();
+    }
+
+    /**
+     * Appends every tree in the file to {@code store} and returns how many were
+     * read. The file's types are resolved through {@link TreeTypeFactory}, so
+     * they are the same instances as the factory's types with the same key.
+     */
+    public int readInto(TreeStore store) throws IOException {
+        return readInto(store, TreeTypeFactory::intern);
+    }
+
+    /**
+     * Like {@link #readInto(TreeStore)}, but resolves the file's types through
+     * {@code pool}, as for a forest that counts its trees there.
+     */
+    public int readInto(TreeStore store, TreeTypePool pool) throws IOException {
+        return readInto(store, pool::intern);
+    }
+
+    private int readInto(TreeStore store, UnaryOperator<ITreeType> resolver) throws IOException {
+        fill(20);
+        if (buffer.remaining() < 20) {
+            throw new EOFException("Truncated forest file");
+        }
+        if (buffer.getInt() != ForestWriter.MAGIC || buffer.getInt() != ForestWriter.VERSION) {
+            throw new IOException("Not a binary forest file");
+        }
+        long count = buffer.getLong();
+        if (count > Integer.MAX_VALUE - store.size()) {
+            throw new IOException("Forest of " + count + " trees does not fit in the store");
+        }
+        int[] typeIds = readTypes(store, buffer.getInt(), resolver);
+
+        int sizes = ForestSize.count();
+        int trees = (int) count;
+        int start = store.reserve(trees);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < trees; i++) {
+            if (buffer.remaining() < ForestWriter.MAX_RECORD_BYTES) {
+                fill(ForestWriter.MAX_RECORD_BYTES);
+            }
+            x += unzigzag(readVarint());
+            y += unzigzag(readVarint());
+            int typeAndSize = readVarint();
+            int type = typeAndSize / sizes;
+            if (type >= typeIds.length) {
+                throw new IOException("Tree " + i + " refers to unknown type " + type);
+            }
+            store.set(start + i, x, y, typeIds[type], ForestSize.of(typeAndSize % sizes));
+            treesPerType[type]++;
+        }
+        store.commit(trees);
+        return trees;
+    }
+
+    /**
+     * Tree types of the file read by {@link #readInto}, in file order.
+     */
+    public ITreeType[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * Number of trees read per entry of {@link #getTypes()}.
+     */
+    public long[] getTreesPerType() {
+        return treesPerType.clone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The buffer must go back to the pool only once
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            DirectBufferPool.release(buffer);
+        }
+    }
+
+    private int[] readTypes(TreeStore store, int length, UnaryOperator<ITreeType> resolver) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(length);
+        while (table.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                fill(1);
+                if (!buffer.hasRemaining()) {
+                    throw new EOFException("Truncated forest file");
+                }
+            }
+            int n = Math.min(table.remaining(), buffer.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + n);
+            table.put(slice);
+            buffer.position(buffer.position() + n);
+        }
+        table.flip();
+        int typeCount = table.getInt();
+        types = new ITreeType[typeCount];
+        treesPerType = new long[typeCount];
+        int[] typeIds = new int[typeCount];
+        for (int t = 0; t < typeCount; t++) {
+            ITreeType type = TreeTypeCodec.read(table);
+            types[t] = type == null ? null : resolver.apply(type);
+            // No tree refers to a slot that was free when the file was written
+            typeIds[t] = types[t] == null ? TreeStore.REMOVED : store.typeIdOf(types[t]);
+        }
+        return typeIds;
+    }
+
+    // Refills the buffer until it holds at least `needed` bytes or the file ends.
+    private void fill(int needed) throws IOException {
+        buffer.compact();
+        while (buffer.position() < needed && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+    }
+
+    private int readVarint() throws EOFException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException("Truncated forest file");
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint in forest file");
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -1,7 +1,33 @@
 package DesignPatterns.Flyweight;
 
 public enum ForestSize {
-    SOUTH,
-    MIDDLE,
-    NORTH
+    SOUTH(10, 20),
+    MIDDLE(5, 10),
+    NORTH(2, 5);
+
+    private static final ForestSize[] VALUES = values();
+
+    private final int halfWidth;
+    private final int halfHeight;
+
+    ForestSize(int halfWidth, int halfHeight) {
+        this.halfWidth = halfWidth;
+        this.halfHeight = halfHeight;
+    }
+
+    public int getHalfWidth() {
+        return halfWidth;
+    }
+
+    public int getHalfHeight() {
+        return halfHeight;
+    }
+
+    static int count() {
+        return VALUES.length;
+    }
+
+    static ForestSize of(int ordinal) {
+        return VALUES[ordinal];
+    }
 }
@@ -0,0 +1,145 @@
+package DesignPatterns.Flyweight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a forest in the compact binary forest format:
+ *
+ * <pre>
+ * header  : magic, version, tree count (long), type table length, type table
+ * records : per live tree, sorted by 64px spatial cell and then by index,
+ *           zigzag varint dx and dy from the previous record, and a varint
+ *           of typeId * ForestSize count + size ordinal
+ * </pre>
+ *
+ * Neighbouring trees end up next to each other, so most records take 3 to
+ * 5 bytes instead of the 11 held in memory.
+ */
+public class ForestWriter implements Closeable {
+    static final int MAGIC = 0x46525342; // "FRSB"
+    static final int VERSION = 1;
+    static final int MAX_RECORD_BYTES = 15;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean closed;
+
+    public ForestWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        // Only once the file is open, so a failed open leaks no pooled buffer
+        buffer = DirectBufferPool.acquire();
+    }
+
+    /**
+     * Writes every live tree of {@code store}. Trees come back in spatial
+     * rather than planting order.
+     */
+    public void write(TreeStore store) throws IOException {
+        long[] order = spatialOrder(store);
+        ByteBuffer types = encodeTypes(store);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(order.length);
+        buffer.putInt(types.remaining());
+        flush();
+        while (types.hasRemaining()) {
+            channel.write(types);
+        }
+
+        int sizes = ForestSize.count();
+        int previousX = 0;
+        int previousY = 0;
+        for (long entry : order) {
+            if (buffer.remaining() < MAX_RECORD_BYTES) {
+                flush();
+            }
+            int index = (int) entry;
+            int x = store.getX(index);
+            int y = store.getY(index);
+            writeVarint(buffer, zigzag(x - previousX));
+            writeVarint(buffer, zigzag(y - previousY));
+            writeVarint(buffer, store.getTypeId(index) * sizes + store.getForestSize(index).ordinal());
+            previousX = x;
+            previousY = y;
+        }
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The buffer must go back to the pool only once
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            channel.close();
+        } finally {
+            DirectBufferPool.release(buffer);
+        }
+    }
+
+    // Live tree indices in the low 32 bits, sorted by their cell in the high 32 bits.
+    private static long[] spatialOrder(TreeStore store) {
+        long[] order = new long[store.size()];
+        int live = 0;
+        for (int i = 0, n = store.size(); i < n; i++) {
+            if (store.getTypeId(i) == TreeStore.REMOVED) {
+                continue;
+            }
+            int cellX = store.getX(i) >> SpatialGrid.CELL_SHIFT;
+            int cellY = store.getY(i) >> SpatialGrid.CELL_SHIFT;
+            long cell = (cellY & 0xFFFFL) << 16 | (cellX & 0xFFFFL);
+            order[live++] = cell << 32 | i;
+        }
+        order = Arrays.copyOf(order, live);
+        Arrays.parallelSort(order);
+        return order;
+    }
+
+    private static ByteBuffer encodeTypes(TreeStore store) {
+        int capacity = 4096;
+        while (true) {
+            ByteBuffer types = ByteBuffer.allocate(capacity);
+            try {
+                types.putInt(store.getTypeCount());
+                for (int t = 0; t < store.getTypeCount(); t++) {
+                    TreeTypeCodec.write(types, store.getType(t));
+                }
+                return types.flip();
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -2,12 +2,21 @@ package DesignPatterns.Flyweight;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 public class FruitTreeDecorator implements ITreeType {
     private TreeType decoratedTreeType;
+    private Color color;
 
     public FruitTreeDecorator(TreeType decoratedTreeType) {
         this.decoratedTreeType = decoratedTreeType;
+        // Adjust color for fruit trees
+        Color baseColor = decoratedTreeType.getColor();
+        this.color = baseColor == null ? null : baseColor.brighter(); // Example: Slightly brighter color
+    }
+
+    public TreeType getDecoratedTreeType() {
+        return decoratedTreeType;
     }
 
     @Override
@@ -17,8 +26,7 @@ public class FruitTreeDecorator implements ITreeType {
 
     @Override
     public Color getColor() {
-        // Adjust color for fruit trees
-        return decoratedTreeType.getColor().brighter(); // Example: Slightly brighter color
+        return color;
     }
 
     @Override
@@ -36,4 +44,14 @@ public class FruitTreeDecorator implements ITreeType {
             g.fillOval(x + i * 5, y - i * 5, 5, 5);
         }
     }
+
+    @Override
+    public Rectangle getBounds(int x, int y, ForestSize forestSize) {
+        Rectangle bounds = ITreeType.super.getBounds(x, y, forestSize);
+        if (decoratedTreeType.isFruitTree() && decoratedTreeType.getCountOfFruits() > 0) {
+            int reach = decoratedTreeType.getCountOfFruits() * 5;
+            bounds.add(new Rectangle(x, y - reach + 5, reach, reach));
+        }
+        return bounds;
+    }
 }
@@ -2,10 +2,24 @@ package DesignPatterns.Flyweight;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 public interface ITreeType {
     boolean isFruitTree();
     Color getColor();
     int getCountOfFruits();
     void draw(Graphics g, int x, int y, ForestSize forestSize);
+
+    /**
+     * Area that {@link #draw} may paint for a tree anchored at (x, y).
+     */
+    default Rectangle getBounds(int x, int y, ForestSize forestSize) {
+        Rectangle bounds = new Rectangle(x - forestSize.getHalfWidth(), y - forestSize.getHalfHeight(),
+                forestSize.getHalfWidth() * 2, forestSize.getHalfHeight() * 2);
+        if (isFruitTree() && getCountOfFruits() > 0) {
+            int reach = getCountOfFruits() * 5;
+            bounds.add(new Rectangle(x, y - reach + 5, reach, reach));
+        }
+        return bounds;
+    }
 }
@@ -0,0 +1,273 @@
+package DesignPatterns.Flyweight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * File-backed tree store. Trees are fixed-width records in memory-mapped
+ * chunks after a header holding the tree count and the type table, so a
+ * saved forest reopens without deserializing and paints straight from the
+ * page cache.
+ *
+ * <pre>
+ * header  : magic, version, tree count, type count, type table length, type table
+ * record  : x (int), y (int), type id (short), size (byte), padding (byte)
+ * </pre>
+ */
+public class MappedTreeStore implements TreeStore, Closeable {
+    private static final int MAGIC = 0x46525354; // "FRST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64 * 1024;
+    private static final int COUNT_OFFSET = 8;
+    private static final int TYPE_COUNT_OFFSET = 16;
+    private static final int TYPE_TABLE_OFFSET = 24;
+
+    static final int RECORD_BYTES = 12;
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+    private static final long CHUNK_BYTES = (long) CHUNK_RECORDS * RECORD_BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final TreeTypeTable types = new TreeTypeTable();
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private int size;
+    // Removed slots among the committed trees, or -1 until first counted after open()
+    private int removed;
+
+    private MappedTreeStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    }
+
+    public static MappedTreeStore create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedTreeStore store = new MappedTreeStore(channel);
+        store.header.putInt(0, MAGIC);
+        store.header.putInt(4, VERSION);
+        store.header.putLong(COUNT_OFFSET, 0);
+        store.writeTypeTable();
+        return store;
+    }
+
+    public static MappedTreeStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            channel.close();
+            throw new IOException("Not a forest file: " + file);
+        }
+        MappedTreeStore store = new MappedTreeStore(channel);
+        if (store.header.getInt(0) != MAGIC || store.header.getInt(4) != VERSION) {
+            store.close();
+            throw new IOException("Not a forest file: " + file);
+        }
+        store.size = (int) store.header.getLong(COUNT_OFFSET);
+        store.removed = -1;
+        ByteBuffer table = store.header.duplicate();
+        table.position(TYPE_TABLE_OFFSET);
+        for (int i = 0, n = store.header.getInt(TYPE_COUNT_OFFSET); i < n; i++) {
+            store.types.load(TreeTypeCodec.read(table));
+        }
+        return store;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int liveCount() {
+        if (removed < 0) {
+            removed = countRemoved(0, size);
+        }
+        return size - removed;
+    }
+
+    @Override
+    public int getX(int index) {
+        return chunk(index).getInt(offset(index));
+    }
+
+    @Override
+    public int getY(int index) {
+        return chunk(index).getInt(offset(index) + 4);
+    }
+
+    @Override
+    public int getTypeId(int index) {
+        return chunk(index).getShort(offset(index) + 8);
+    }
+
+    @Override
+    public ForestSize getForestSize(int index) {
+        return ForestSize.of(chunk(index).get(offset(index) + 10));
+    }
+
+    @Override
+    public ITreeType getType(int typeId) {
+        return types.get(typeId);
+    }
+
+    @Override
+    public int getTypeCount() {
+        return types.size();
+    }
+
+    @Override
+    public int add(int x, int y, ITreeType type, ForestSize forestSize) {
+        int index = size;
+        set(index, x, y, typeIdOf(type), forestSize);
+        commit(1);
+        return index;
+    }
+
+    @Override
+    public void remove(int index) {
+        if (getTypeId(index) != REMOVED) {
+            chunk(index).putShort(offset(index) + 8, (short) REMOVED);
+            if (removed >= 0) {
+                removed++;
+            }
+        }
+    }
+
+    @Override
+    public int typeIdOf(ITreeType type) {
+        // A new type may take a freed id, which leaves the table's size as it was
+        boolean added = !types.contains(type);
+        int typeId = types.idOf(type);
+        if (added) {
+            writeTypeTable();
+        }
+        return typeId;
+    }
+
+    @Override
+    public void releaseType(ITreeType type) {
+        if (types.release(type)) {
+            writeTypeTable();
+        }
+    }
+
+    @Override
+    public int reserve(int count) {
+        if (count > 0) {
+            // Map every chunk up front so that concurrent set() calls never remap.
+            for (int c = size >>> CHUNK_SHIFT, last = (size + count - 1) >>> CHUNK_SHIFT; c <= last; c++) {
+                chunk(c << CHUNK_SHIFT);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void set(int index, int x, int y, int typeId, ForestSize forestSize) {
+        MappedByteBuffer chunk = chunk(index);
+        int offset = offset(index);
+        chunk.putInt(offset, x);
+        chunk.putInt(offset + 4, y);
+        chunk.putShort(offset + 8, (short) typeId);
+        chunk.put(offset + 10, (byte) forestSize.ordinal());
+    }
+
+    @Override
+    public void commit(int count) {
+        if (removed >= 0) {
+            removed += countRemoved(size, size + count);
+        }
+        size += count;
+        header.putLong(COUNT_OFFSET, size);
+    }
+
+    @Override
+    public long retainedBytes() {
+        return ArrayTreeStore.arrayBytes(chunks.length, 4);
+    }
+
+    /**
+     * Bytes of the backing file currently mapped for tree records.
+     */
+    public long mappedBytes() {
+        long mapped = 0;
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                mapped += chunk.capacity();
+            }
+        }
+        return mapped;
+    }
+
+    public void flush() {
+        header.force();
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void writeTypeTable() {
+        ByteBuffer table = header.duplicate();
+        table.position(TYPE_TABLE_OFFSET);
+        try {
+            for (int i = 0; i < types.size(); i++) {
+                TreeTypeCodec.write(table, types.get(i));
+            }
+        } catch (BufferOverflowException e) {
+            throw new IllegalStateException("Tree type table does not fit in the " + HEADER_BYTES + " byte header", e);
+        }
+        header.putInt(TYPE_COUNT_OFFSET, types.size());
+        header.putInt(TYPE_COUNT_OFFSET + 4, table.position() - TYPE_TABLE_OFFSET);
+    }
+
+    private int countRemoved(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (getTypeId(i) == REMOVED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int offset(int index) {
+        return (index & CHUNK_MASK) * RECORD_BYTES;
+    }
+
+    private MappedByteBuffer chunk(int index) {
+        int c = index >>> CHUNK_SHIFT;
+        if (c < chunks.length && chunks[c] != null) {
+            return chunks[c];
+        }
+        return map(c);
+    }
+
+    private MappedByteBuffer map(int c) {
+        if (c >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, c + 1);
+        }
+        try {
+            chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + c * CHUNK_BYTES, CHUNK_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunks[c];
+    }
+}
@@ -0,0 +1,41 @@
+package DesignPatterns.Flyweight;
+
+import java.lang.ref.Reference;
+import java.util.function.Supplier;
+
+/**
+ * Measures retained heap as the difference in used memory, after forced
+ * collections, before and after building an object graph. Only meaningful
+ * for graphs of a few MB and up; run with a fixed heap (-Xms = -Xmx) and no
+ * other threads allocating.
+ */
+final class MemoryMeter {
+    private static final int GC_ROUNDS = 5;
+
+    private MemoryMeter() {
+    }
+
+    static long retainedBytes(Supplier<?> builder) {
+        long before = usedAfterGc();
+        Object graph = builder.get();
+        long after = usedAfterGc();
+        Reference.reachabilityFence(graph);
+        return after - before;
+    }
+
+    static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
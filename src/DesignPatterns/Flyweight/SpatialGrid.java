@@ -0,0 +1,118 @@
+package DesignPatterns.Flyweight;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid over tree anchor points. Each occupied cell lists the indices
+ * of the trees anchored in it, in planting order.
+ *
+ * Cells are found through an open-addressing table of primitive cell keys,
+ * so a query allocates nothing but what {@code out} needs to grow.
+ */
+class SpatialGrid {
+    static final int CELL_SHIFT = 6;
+
+    private final List<IntList> cells = new ArrayList<>();
+    // Cell keys, and one more than the index of each key's list in cells; 0 marks a free slot
+    private long[] keys = new long[64];
+    private int[] slots = new int[64];
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    void add(int index, int x, int y) {
+        int cellX = x >> CELL_SHIFT;
+        int cellY = y >> CELL_SHIFT;
+        long key = key(cellX, cellY);
+        IntList cell = find(key);
+        if (cell == null) {
+            cell = new IntList();
+            insert(key, cells.size() + 1);
+            cells.add(cell);
+            if (cells.size() * 2 > keys.length) {
+                grow();
+            }
+        }
+        cell.add(index);
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+
+    /**
+     * True if every occupied cell lies inside the given (inclusive) area.
+     */
+    boolean isWithin(int minX, int minY, int maxX, int maxY) {
+        return cells.isEmpty() || ((minX >> CELL_SHIFT) < minCellX && (minY >> CELL_SHIFT) < minCellY
+                && (maxX >> CELL_SHIFT) > maxCellX && (maxY >> CELL_SHIFT) > maxCellY);
+    }
+
+    /**
+     * Collects the trees anchored in cells overlapping the given (inclusive)
+     * area, sorted back into planting order. {@code out} is cleared first.
+     */
+    void query(int minX, int minY, int maxX, int maxY, IntList out) {
+        int fromX = Math.max(minX >> CELL_SHIFT, minCellX);
+        int fromY = Math.max(minY >> CELL_SHIFT, minCellY);
+        int toX = Math.min(maxX >> CELL_SHIFT, maxCellX);
+        int toY = Math.min(maxY >> CELL_SHIFT, maxCellY);
+        out.clear();
+        int nonEmpty = 0;
+        for (int cellY = fromY; cellY <= toY; cellY++) {
+            for (int cellX = fromX; cellX <= toX; cellX++) {
+                IntList cell = find(key(cellX, cellY));
+                if (cell != null) {
+                    out.addAll(cell);
+                    nonEmpty++;
+                }
+            }
+        }
+        if (nonEmpty > 1) {
+            out.sort();
+        }
+    }
+
+    private IntList find(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return cells.get(slots[i] - 1);
+            }
+        }
+        return null;
+    }
+
+    private void insert(long key, int slot) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        slots[i] = slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != 0) {
+                insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,120 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pre-rendered image of every (tree type, forest size) pair of a store, so
+ * painting a tree is one drawImage instead of the type's draw calls.
+ * Sprites remember the type, color and fruit count they were rendered with
+ * and are re-rendered by {@link #validate} once any of them changes, as
+ * when a released type's id goes to a new type.
+ */
+class SpriteCache {
+    static final class Sprite {
+        final BufferedImage image; // null if the type paints nothing
+        final int offsetX;
+        final int offsetY;
+        final ITreeType type;
+        final int rgb;
+        final int countOfFruits;
+
+        Sprite(BufferedImage image, int offsetX, int offsetY, ITreeType type, int rgb, int countOfFruits) {
+            this.image = image;
+            this.type = type;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.rgb = rgb;
+            this.countOfFruits = countOfFruits;
+        }
+    }
+
+    private final TreeStore store;
+    private Sprite[] sprites = new Sprite[0];
+    private int generation;
+
+    SpriteCache(TreeStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Drops sprites whose type changed color or fruit count since they were
+     * rendered and makes room for types added since the last call. Call
+     * before a paint pass; {@link #draw} is then safe from several threads.
+     */
+    void validate() {
+        int sizes = ForestSize.count();
+        int typeCount = store.getTypeCount();
+        if (sprites.length < typeCount * sizes) {
+            sprites = Arrays.copyOf(sprites, typeCount * sizes);
+        }
+        for (int typeId = 0; typeId < typeCount; typeId++) {
+            ITreeType type = store.getType(typeId);
+            for (int size = 0; size < sizes; size++) {
+                Sprite sprite = sprites[typeId * sizes + size];
+                if (type == null) {
+                    // Free id; no tree refers to it
+                    sprites[typeId * sizes + size] = null;
+                } else if (sprite == null || sprite.type != type || sprite.rgb != rgb(type) || sprite.countOfFruits != type.getCountOfFruits()) {
+                    sprites[typeId * sizes + size] = render(type, ForestSize.of(size));
+                    generation++;
+                }
+            }
+        }
+    }
+
+    void draw(Graphics g, int index) {
+        int typeId = store.getTypeId(index);
+        if (typeId == TreeStore.REMOVED) {
+            return;
+        }
+        Sprite sprite = get(typeId, store.getForestSize(index));
+        if (sprite.image != null) {
+            g.drawImage(sprite.image, store.getX(index) + sprite.offsetX, store.getY(index) + sprite.offsetY, null);
+        }
+    }
+
+    /**
+     * Changes whenever {@link #validate} renders a sprite, which may have
+     * moved or resized what some tree paints.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    Sprite get(int typeId, ForestSize forestSize) {
+        return sprites[typeId * ForestSize.count() + forestSize.ordinal()];
+    }
+
+    private static Sprite render(ITreeType type, ForestSize forestSize) {
+        Rectangle bounds = type.getBounds(0, 0, forestSize);
+        BufferedImage image = new BufferedImage(Math.max(1, bounds.width), Math.max(1, bounds.height),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        type.draw(g, 0, 0, forestSize);
+        g.dispose();
+        return new Sprite(isBlank(image) ? null : image, bounds.x, bounds.y, type, rgb(type),
+                type.getCountOfFruits());
+    }
+
+    private static boolean isBlank(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) >>> 24) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int rgb(ITreeType type) {
+        Color color = type.getColor();
+        return color == null ? 0 : color.getRGB();
+    }
+}
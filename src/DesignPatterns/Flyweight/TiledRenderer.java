@@ -0,0 +1,157 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a whole forest offscreen by splitting the frame into tiles,
+ * bucketing trees by the tiles their sprite overlaps and rasterizing the
+ * tiles in parallel. Tiles are disjoint, so workers never touch the same
+ * pixels, and each bucket keeps planting order so overlaps match a
+ * sequential paint. Needs no display and works with java.awt.headless=true.
+ *
+ * The buckets are kept from frame to frame and only rebuilt when trees
+ * were planted, a sprite changed or the frame was resized. Removed trees
+ * keep their slots in the buckets and are skipped as they are drawn.
+ */
+class TiledRenderer {
+    static final int TILE_SHIFT = 7;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    private final TreeStore store;
+    private final SpriteCache sprites;
+    private final ForkJoinPool pool;
+    private BufferedImage frame;
+    private Color background = Color.WHITE;
+
+    // Tree indices grouped by tile: bucket t is treesByTile[tileStart[t] .. tileStart[t + 1])
+    private int[] tileStart = new int[0];
+    private int[] treesByTile = new int[0];
+    // What the buckets were built for
+    private int bucketedTilesX = -1;
+    private int bucketedTilesY = -1;
+    private int bucketedTrees = -1;
+    private int bucketedSprites = -1;
+
+    TiledRenderer(TreeStore store, SpriteCache sprites, ForkJoinPool pool) {
+        this.store = store;
+        this.sprites = sprites;
+        this.pool = pool;
+    }
+
+    void setBackground(Color background) {
+        this.background = background;
+    }
+
+    /**
+     * Renders every tree into a frame of the given size. The returned image
+     * is reused by the next call with the same size.
+     */
+    BufferedImage render(int width, int height) {
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        sprites.validate();
+        int tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        int tilesY = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        if (tilesX != bucketedTilesX || tilesY != bucketedTilesY || store.size() != bucketedTrees
+                || sprites.getGeneration() != bucketedSprites) {
+            bucket(tilesX, tilesY);
+            bucketedTilesX = tilesX;
+            bucketedTilesY = tilesY;
+            bucketedSprites = sprites.getGeneration();
+        }
+        pool.invoke(new TileTask(tilesX, 0, tilesX * tilesY));
+        return frame;
+    }
+
+    private void bucket(int tilesX, int tilesY) {
+        int tiles = tilesX * tilesY;
+        if (tileStart.length < tiles + 1) {
+            tileStart = new int[tiles + 1];
+        }
+        int[] counts = new int[tiles + 1];
+        int n = store.size();
+        bucketedTrees = n;
+        // Pass 1 counts the entries per tile, pass 2 writes them at prefix-sum offsets.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                int typeId = store.getTypeId(i);
+                if (typeId == TreeStore.REMOVED) {
+                    continue;
+                }
+                SpriteCache.Sprite sprite = sprites.get(typeId, store.getForestSize(i));
+                if (sprite.image == null) {
+                    continue;
+                }
+                int left = store.getX(i) + sprite.offsetX;
+                int top = store.getY(i) + sprite.offsetY;
+                int fromX = Math.max(0, left >> TILE_SHIFT);
+                int fromY = Math.max(0, top >> TILE_SHIFT);
+                int toX = Math.min(tilesX - 1, (left + sprite.image.getWidth() - 1) >> TILE_SHIFT);
+                int toY = Math.min(tilesY - 1, (top + sprite.image.getHeight() - 1) >> TILE_SHIFT);
+                for (int tileY = fromY; tileY <= toY; tileY++) {
+                    for (int tileX = fromX; tileX <= toX; tileX++) {
+                        int tile = tileY * tilesX + tileX;
+                        if (pass == 0) {
+                            counts[tile + 1]++;
+                        } else {
+                            treesByTile[counts[tile]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int t = 0; t < tiles; t++) {
+                    counts[t + 1] += counts[t];
+                }
+                System.arraycopy(counts, 0, tileStart, 0, tiles + 1);
+                if (treesByTile.length < counts[tiles]) {
+                    treesByTile = new int[counts[tiles]];
+                }
+            }
+        }
+    }
+
+    private void renderTile(int tilesX, int tile) {
+        int left = (tile % tilesX) << TILE_SHIFT;
+        int top = (tile / tilesX) << TILE_SHIFT;
+        Graphics2D g = frame.createGraphics();
+        g.clipRect(left, top, TILE_SIZE, TILE_SIZE);
+        g.setBackground(background);
+        g.clearRect(left, top, TILE_SIZE, TILE_SIZE);
+        for (int e = tileStart[tile], end = tileStart[tile + 1]; e < end; e++) {
+            sprites.draw(g, treesByTile[e]);
+        }
+        g.dispose();
+    }
+
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int tilesX;
+        private final int from;
+        private final int to;
+
+        TileTask(int tilesX, int from, int to) {
+            this.tilesX = tilesX;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    renderTile(tilesX, from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(tilesX, from, middle), new TileTask(tilesX, middle, to));
+        }
+    }
+}
@@ -2,20 +2,50 @@ package DesignPatterns.Flyweight;
 
 import java.awt.Graphics;
 
+/**
+ * Lightweight view of one tree in a {@link TreeStore}; the store owns the data.
+ */
 public class Tree {
-    private int x;
-    private int y;
-    private ITreeType type;
-    private ForestSize forestSize;
+    private final TreeStore store;
+    private final int index;
 
-    public Tree(int x, int y, ITreeType type, ForestSize forestSize) {
-        this.x = x;
-        this.y = y;
-        this.type = type;
-        this.forestSize = forestSize;
+    Tree(TreeStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getX() {
+        return store.getX(index);
+    }
+
+    public int getY() {
+        return store.getY(index);
+    }
+
+    public boolean isRemoved() {
+        return store.getTypeId(index) == TreeStore.REMOVED;
+    }
+
+    /**
+     * The tree's flyweight type, or null once the tree has been removed.
+     */
+    public ITreeType getType() {
+        int typeId = store.getTypeId(index);
+        return typeId == TreeStore.REMOVED ? null : store.getType(typeId);
+    }
+
+    public ForestSize getForestSize() {
+        return store.getForestSize(index);
     }
 
     public void draw(Graphics g) {
-        type.draw(g, x, y, forestSize);
+        ITreeType type = getType();
+        if (type != null) {
+            type.draw(g, getX(), getY(), getForestSize());
+        }
     }
 }
@@ -1,21 +1,22 @@
 package DesignPatterns.Flyweight;
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
 
 public class TreeFactory {
-    private static Map<String, TreeType> treeTypes = new HashMap<>();
+    private static final TreeTypeRegistry<TreeType> treeTypes = new TreeTypeRegistry<>();
 
     public static TreeType getTreeType(String name, Color color, String otherTreeData, boolean isFruitTree, int countOfFruits) {
-        String key = name + color + otherTreeData;
-        TreeType result = treeTypes.get(key);
+        TreeType result = treeTypes.get(name, color, otherTreeData);
 
         if (result == null) {
-            result = new TreeType(name, color, otherTreeData, isFruitTree, countOfFruits);
-            treeTypes.put(key, result);
+            result = treeTypes.register(name, color, otherTreeData,
+                    new TreeType(name, color, otherTreeData, isFruitTree, countOfFruits));
         }
 
         return result;
     }
+
+    public static TreeTypeRegistry<TreeType> getRegistry() {
+        return treeTypes;
+    }
 }
@@ -0,0 +1,75 @@
+package DesignPatterns.Flyweight;
+
+/**
+ * Extrinsic state of every tree in a forest, addressed by index.
+ * Intrinsic state lives in the shared {@link ITreeType} flyweights, which
+ * the store keeps once in a small type table and references by id.
+ */
+public interface TreeStore {
+    /**
+     * Type id reported for a removed tree. Removed slots keep their index,
+     * so indices held by views and spatial indexes stay valid.
+     */
+    int REMOVED = -1;
+
+    int size();
+
+    /**
+     * Trees that have not been removed, which {@link #size} still counts.
+     */
+    int liveCount();
+
+    int getX(int index);
+
+    int getY(int index);
+
+    int getTypeId(int index);
+
+    ForestSize getForestSize(int index);
+
+    ITreeType getType(int typeId);
+
+    int getTypeCount();
+
+    /**
+     * Appends a tree and returns its index.
+     */
+    int add(int x, int y, ITreeType type, ForestSize forestSize);
+
+    /**
+     * Registers {@code type} in the type table if needed and returns its id.
+     */
+    int typeIdOf(ITreeType type);
+
+    /**
+     * Drops {@code type} from the type table once no tree in the store uses
+     * it, so the type can be collected and its id reused by the next new
+     * type. {@link #getType} returns null for free ids.
+     */
+    void releaseType(ITreeType type);
+
+    void remove(int index);
+
+    /**
+     * Makes room for {@code count} more trees and returns the index of the
+     * first one. The slots are filled with {@link #set} and become visible
+     * with {@link #commit}.
+     */
+    int reserve(int count);
+
+    /**
+     * Writes a reserved slot. Distinct slots may be written from several
+     * threads at once.
+     */
+    void set(int index, int x, int y, int typeId, ForestSize forestSize);
+
+    /**
+     * Publishes {@code count} slots filled since the matching {@link #reserve}.
+     */
+    void commit(int count);
+
+    /**
+     * Heap bytes held by the store itself, not counting the shared tree types.
+     */
+    long retainedBytes();
+}
@@ -9,6 +9,7 @@ public class TreeType {
     private String otherTreeData;
     private boolean isFruitTree;
     private int countOfFruits;
+    private Color fruitColor;
 
     public TreeType(String name, Color color, String otherTreeData, boolean isFruitTree, int countOfFruits) {
         this.name = name;
@@ -16,6 +17,15 @@ public class TreeType {
         this.otherTreeData = otherTreeData;
         this.isFruitTree = isFruitTree;
         this.countOfFruits = countOfFruits;
+        this.fruitColor = color == null ? null : color.brighter(); // Slightly brighter color for fruit trees
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOtherTreeData() {
+        return otherTreeData;
     }
 
     public boolean isFruitTree() {
@@ -31,28 +41,14 @@ public class TreeType {
     }
 
     public void draw(Graphics g, int x, int y, ForestSize forestSize) {
-        // Draw logic based on forestSize
-        switch (forestSize) {
-            case SOUTH:
-                // Draw large trees
-                g.setColor(getColor());
-                g.fillRect(x - 10, y - 20, 20, 40);
-                break;
-            case MIDDLE:
-                // Draw medium-sized trees
-                g.setColor(getColor());
-                g.fillRect(x - 5, y - 10, 10, 20);
-                break;
-            case NORTH:
-                // Draw small trees
-                g.setColor(getColor());
-                g.fillRect(x - 2, y - 5, 4, 10);
-                break;
-        }
+        // Draw logic based on forestSize: large trees in the south, small ones in the north
+        g.setColor(getColor());
+        g.fillRect(x - forestSize.getHalfWidth(), y - forestSize.getHalfHeight(),
+                forestSize.getHalfWidth() * 2, forestSize.getHalfHeight() * 2);
 
         // Draw fruits for fruit trees
         if (isFruitTree) {
-            g.setColor(color.brighter()); // Slightly brighter color for fruit trees
+            g.setColor(fruitColor);
             // Draw fruits
             for (int i = 0; i < countOfFruits; i++) {
                 g.fillOval(x + i * 5, y - i * 5, 5, 5);
@@ -0,0 +1,124 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary descriptors for the tree types a forest refers to, so that a saved
+ * forest can rebuild its type table without Java serialization.
+ */
+final class TreeTypeCodec {
+    private static final byte BASIC = 0;
+    private static final byte FRUIT = 1;
+    // A free slot in a type table
+    private static final byte NONE = 2;
+    // A basic type with the name and other tree data it was created for
+    private static final byte NAMED_BASIC = 3;
+
+    private TreeTypeCodec() {
+    }
+
+    static void write(ByteBuffer buffer, ITreeType type) {
+        if (type == null) {
+            buffer.put(NONE);
+        } else if (type instanceof BasicTreeType) {
+            BasicTreeType basic = (BasicTreeType) type;
+            if (basic.getName() == null && basic.getOtherTreeData() == null) {
+                buffer.put(BASIC);
+                buffer.putInt(type.getColor().getRGB());
+            } else {
+                buffer.put(NAMED_BASIC);
+                buffer.putInt(type.getColor().getRGB());
+                writeString(buffer, basic.getName());
+                writeString(buffer, basic.getOtherTreeData());
+            }
+        } else if (type instanceof FruitTreeDecorator) {
+            TreeType decorated = ((FruitTreeDecorator) type).getDecoratedTreeType();
+            buffer.put(FRUIT);
+            buffer.putInt(decorated.getColor().getRGB());
+            writeString(buffer, decorated.getName());
+            writeString(buffer, decorated.getOtherTreeData());
+            buffer.put((byte) (decorated.isFruitTree() ? 1 : 0));
+            buffer.putInt(decorated.getCountOfFruits());
+        } else {
+            throw new IllegalArgumentException("Unsupported tree type: " + type.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a descriptor written by {@link #write}; null for a free slot.
+     */
+    static ITreeType read(ByteBuffer buffer) {
+        byte kind = buffer.get();
+        if (kind == NONE) {
+            return null;
+        }
+        Color color = new Color(buffer.getInt(), true);
+        switch (kind) {
+            case BASIC:
+                return new BasicTreeType(color);
+            case NAMED_BASIC:
+                return new BasicTreeType(readString(buffer), color, readString(buffer));
+            case FRUIT:
+                String name = readString(buffer);
+                String otherTreeData = readString(buffer);
+                boolean isFruitTree = buffer.get() != 0;
+                int countOfFruits = buffer.getInt();
+                return new FruitTreeDecorator(new TreeType(name, color, otherTreeData, isFruitTree, countOfFruits));
+            default:
+                throw new IllegalArgumentException("Unknown tree type tag: " + kind);
+        }
+    }
+
+    /**
+     * Name of the flyweight key {@code type} was created for.
+     */
+    static String nameOf(ITreeType type) {
+        if (type instanceof FruitTreeDecorator) {
+            return ((FruitTreeDecorator) type).getDecoratedTreeType().getName();
+        }
+        return type instanceof BasicTreeType ? ((BasicTreeType) type).getName() : null;
+    }
+
+    /**
+     * Color of the flyweight key, which for a fruit tree is the undecorated one.
+     */
+    static Color colorOf(ITreeType type) {
+        if (type instanceof FruitTreeDecorator) {
+            return ((FruitTreeDecorator) type).getDecoratedTreeType().getColor();
+        }
+        return type.getColor();
+    }
+
+    static String otherTreeDataOf(ITreeType type) {
+        if (type instanceof FruitTreeDecorator) {
+            return ((FruitTreeDecorator) type).getDecoratedTreeType().getOtherTreeData();
+        }
+        return type instanceof BasicTreeType ? ((BasicTreeType) type).getOtherTreeData() : null;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
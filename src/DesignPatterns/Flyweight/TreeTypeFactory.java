@@ -2,21 +2,34 @@ package DesignPatterns.Flyweight;
 
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
 
 public class TreeTypeFactory {
-    private static final Map<String, ITreeType> treeTypes = new HashMap<>();
+    private static final TreeTypeRegistry<ITreeType> treeTypes = new TreeTypeRegistry<>();
 
     public static ITreeType getTreeType(String name, Color color, String otherTreeData) {
-        String key = name + color + otherTreeData;
-        ITreeType result = treeTypes.get(key);
+        ITreeType result = treeTypes.get(name, color, otherTreeData);
 
         if (result == null) {
-            result = new BasicTreeType(color); // Passing color to the BasicTreeType constructor
-            treeTypes.put(key, result);
+            result = treeTypes.register(name, color, otherTreeData,
+                    new BasicTreeType(name, color, otherTreeData));
         }
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * The registered type with {@code type}'s name, color and other tree
+     * data, registering {@code type} itself if there is none yet.
+     */
+    public static ITreeType intern(ITreeType type) {
+        String name = TreeTypeCodec.nameOf(type);
+        Color color = TreeTypeCodec.colorOf(type);
+        String otherTreeData = TreeTypeCodec.otherTreeDataOf(type);
+        ITreeType result = treeTypes.get(name, color, otherTreeData);
+        return result != null ? result : treeTypes.register(name, color, otherTreeData, type);
+    }
+
+    public static TreeTypeRegistry<ITreeType> getRegistry() {
+        return treeTypes;
+    }
+}
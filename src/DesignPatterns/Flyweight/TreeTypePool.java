@@ -0,0 +1,295 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Flyweight pool for long-running forests whose tree types come and go.
+ *
+ * Each pooled type counts the trees planted with it ({@link #retain}) and
+ * removed again ({@link #release}). A type whose trees have all been
+ * released is idle: without a byte budget it is dropped as soon as it goes
+ * idle, with a budget idle types stay cached, least recently used first
+ * out, only while the pool's resident bytes exceed the budget. Types in use
+ * are never evicted, and neither are the last {@link #MAX_PENDING} types
+ * handed out by {@link #get} and not yet planted, so fetching several types
+ * before planting any of them keeps each one's identity. Older ones that
+ * were never planted go idle, so callers may drop types they fetched.
+ *
+ * Listeners hear of every evicted type, so stores can give up the table
+ * slots they hold for it.
+ */
+public class TreeTypePool {
+    public interface Loader {
+        ITreeType load(String name, Color color, String otherTreeData);
+    }
+
+    public interface EvictionListener {
+        void evicted(ITreeType type);
+    }
+
+    private static final class Key {
+        final String name;
+        final int rgb;
+        final String otherTreeData;
+        final int hash;
+
+        Key(String name, Color color, String otherTreeData) {
+            this.name = name;
+            this.rgb = color.getRGB();
+            this.otherTreeData = otherTreeData;
+            this.hash = Objects.hash(name, rgb, otherTreeData);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && rgb == other.rgb
+                    && Objects.equals(name, other.name) && Objects.equals(otherTreeData, other.otherTreeData);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final ITreeType type;
+        final long bytes;
+        long references;
+
+        Entry(Key key, ITreeType type) {
+            this.key = key;
+            this.type = type;
+            this.bytes = stringBytes(key.name) + stringBytes(key.otherTreeData) + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    // Entry, key, map nodes and a small tree type object, rounded
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+    // Types handed out and not yet planted that are kept from eviction
+    static final int MAX_PENDING = 256;
+
+    private final long byteBudget;
+    private final Loader loader;
+    private final List<EvictionListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Map<ITreeType, Entry> byType = new IdentityHashMap<>();
+    // Idle entries in least recently used first order
+    private final LinkedHashMap<Key, Entry> idle = new LinkedHashMap<>();
+    // Unplanted entries handed out most recently, oldest first
+    private final LinkedHashMap<Key, Entry> pending = new LinkedHashMap<>();
+    private long residentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Pool that drops types as soon as no tree uses them.
+     */
+    public TreeTypePool() {
+        this(0);
+    }
+
+    /**
+     * Pool that keeps idle types cached while it holds at most {@code byteBudget} bytes.
+     */
+    public TreeTypePool(long byteBudget) {
+        this(byteBudget, BasicTreeType::new);
+    }
+
+    public TreeTypePool(long byteBudget, Loader loader) {
+        this.byteBudget = byteBudget;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the pooled type for the key, loading it on a miss. A type no
+     * tree uses yet is pinned until trees planted with it are retained or
+     * {@link #MAX_PENDING} other such types have been handed out since.
+     */
+    public ITreeType get(String name, Color color, String otherTreeData) {
+        return resolve(name, color, otherTreeData, null);
+    }
+
+    /**
+     * The pooled type with {@code type}'s name, color and other tree data,
+     * pooling {@code type} itself if there is none yet. Types decoded from a
+     * file go through here, so they share the instances planted trees use.
+     */
+    public ITreeType intern(ITreeType type) {
+        return resolve(TreeTypeCodec.nameOf(type), TreeTypeCodec.colorOf(type), TreeTypeCodec.otherTreeDataOf(type), type);
+    }
+
+    // Looks up the key, pooling `candidate` or else a freshly loaded type on a miss.
+    private ITreeType resolve(String name, Color color, String otherTreeData, ITreeType candidate) {
+        List<ITreeType> evicted;
+        ITreeType type;
+        synchronized (this) {
+            Key key = new Key(name, color, otherTreeData);
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                if (entry.references == 0) {
+                    pin(entry);
+                }
+                evicted = evictIdle(0);
+            } else {
+                misses++;
+                entry = new Entry(key, candidate != null ? candidate : loader.load(name, color, otherTreeData));
+                pin(entry);
+                evicted = evictIdle(entry.bytes);
+                entries.put(key, entry);
+                byType.put(entry.type, entry);
+                residentBytes += entry.bytes;
+            }
+            type = entry.type;
+        }
+        notifyEvicted(evicted);
+        return type;
+    }
+
+    /**
+     * Records {@code trees} more trees using {@code type}. Types this pool did
+     * not create are ignored.
+     */
+    public synchronized void retain(ITreeType type, long trees) {
+        Entry entry = byType.get(type);
+        if (entry == null || trees <= 0) {
+            return;
+        }
+        idle.remove(entry.key);
+        pending.remove(entry.key);
+        entry.references += trees;
+    }
+
+    /**
+     * Records {@code trees} fewer trees using {@code type}, reclaiming it if it is now unused.
+     */
+    public void release(ITreeType type, long trees) {
+        List<ITreeType> evicted;
+        synchronized (this) {
+            Entry entry = byType.get(type);
+            if (entry == null || trees <= 0) {
+                return;
+            }
+            if (trees > entry.references) {
+                throw new IllegalStateException("Released " + trees + " trees of a type used by " + entry.references);
+            }
+            entry.references -= trees;
+            if (entry.references > 0) {
+                return;
+            }
+            idle.put(entry.key, entry);
+            evicted = evictIdle(0);
+        }
+        notifyEvicted(evicted);
+    }
+
+    public void addEvictionListener(EvictionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEvictionListener(EvictionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized long getReferenceCount(ITreeType type) {
+        Entry entry = byType.get(type);
+        return entry == null ? 0 : entry.references;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + entries.size() + ", idle=" + idle.size() + ", residentBytes=" + residentBytes
+                + ", hitRate=" + String.format("%.3f", getHitRate()) + ", evictions=" + evictions;
+    }
+
+    // Keeps an unplanted entry from eviction, letting the oldest such one go idle past MAX_PENDING.
+    private void pin(Entry entry) {
+        idle.remove(entry.key);
+        pending.remove(entry.key);
+        pending.put(entry.key, entry);
+        if (pending.size() > MAX_PENDING) {
+            Iterator<Entry> oldest = pending.values().iterator();
+            Entry expired = oldest.next();
+            oldest.remove();
+            idle.put(expired.key, expired);
+        }
+    }
+
+    // Evicts least recently used idle types until `incoming` more bytes fit the budget.
+    private List<ITreeType> evictIdle(long incoming) {
+        List<ITreeType> evicted = List.of();
+        Iterator<Entry> it = idle.values().iterator();
+        while (it.hasNext() && residentBytes + incoming > byteBudget) {
+            Entry entry = it.next();
+            it.remove();
+            entries.remove(entry.key);
+            byType.remove(entry.type);
+            residentBytes -= entry.bytes;
+            evictions++;
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(entry.type);
+        }
+        return evicted;
+    }
+
+    // Outside the pool's lock, so listeners may take their own
+    private void notifyEvicted(List<ITreeType> evicted) {
+        for (ITreeType type : evicted) {
+            for (EvictionListener listener : listeners) {
+                listener.evicted(type);
+            }
+        }
+    }
+
+    private static long stringBytes(String value) {
+        // String object plus its backing array, assuming UTF-16 storage as the worst case
+        return value == null ? 0 : 24 + ArrayTreeStore.arrayBytes(value.length(), Character.BYTES);
+    }
+}
@@ -0,0 +1,144 @@
+package DesignPatterns.Flyweight;
+
+import java.awt.Color;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent flyweight cache keyed by (name, color, otherTreeData).
+ *
+ * Lookups hash the key components in place (String hashes are cached and
+ * {@link Color#getRGB()} is a field read), so a hit allocates nothing and
+ * takes no lock. Inserts are serialized and publish entries into an
+ * open-addressing table that is replaced wholesale when it grows.
+ */
+public class TreeTypeRegistry<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final class Entry<T> {
+        final String name;
+        final int rgb;
+        final String otherTreeData;
+        final int hash;
+        final T value;
+
+        Entry(String name, int rgb, String otherTreeData, int hash, T value) {
+            this.name = name;
+            this.rgb = rgb;
+            this.otherTreeData = otherTreeData;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        boolean matches(int hash, String name, int rgb, String otherTreeData) {
+            return this.hash == hash && this.rgb == rgb
+                    && Objects.equals(this.name, name)
+                    && Objects.equals(this.otherTreeData, otherTreeData);
+        }
+    }
+
+    private volatile Entry<T>[] table = newTable(INITIAL_CAPACITY);
+    private volatile int size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Returns the cached value, or null if none has been registered yet.
+     */
+    public T get(String name, Color color, String otherTreeData) {
+        int rgb = color.getRGB();
+        int hash = hash(name, rgb, otherTreeData);
+        Entry<T>[] tab = table;
+        int mask = tab.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Entry<T> entry = tab[i];
+            if (entry == null) {
+                return null;
+            }
+            if (entry.matches(hash, name, rgb, otherTreeData)) {
+                hits.increment();
+                return entry.value;
+            }
+        }
+    }
+
+    /**
+     * Caches {@code candidate} unless another thread got there first, and
+     * returns whichever value is now registered for the key.
+     */
+    public synchronized T register(String name, Color color, String otherTreeData, T candidate) {
+        int rgb = color.getRGB();
+        int hash = hash(name, rgb, otherTreeData);
+        Entry<T>[] tab = table;
+        int mask = tab.length - 1;
+        int i = hash & mask;
+        for (Entry<T> entry = tab[i]; entry != null; entry = tab[i]) {
+            if (entry.matches(hash, name, rgb, otherTreeData)) {
+                hits.increment();
+                return entry.value;
+            }
+            i = (i + 1) & mask;
+        }
+        misses.increment();
+        Entry<T> entry = new Entry<>(name, rgb, otherTreeData, hash, candidate);
+        if ((size + 1) * 2 > tab.length) {
+            Entry<T>[] grown = newTable(tab.length * 2);
+            for (Entry<T> old : tab) {
+                if (old != null) {
+                    insert(grown, old);
+                }
+            }
+            insert(grown, entry);
+            table = grown;
+        } else {
+            // Entry fields are final, so readers that see the slot see a complete entry.
+            tab[i] = entry;
+        }
+        size++;
+        return candidate;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount();
+    }
+
+    private static <T> void insert(Entry<T>[] tab, Entry<T> entry) {
+        int mask = tab.length - 1;
+        int i = entry.hash & mask;
+        while (tab[i] != null) {
+            i = (i + 1) & mask;
+        }
+        tab[i] = entry;
+    }
+
+    private static int hash(String name, int rgb, String otherTreeData) {
+        int h = Objects.hashCode(name);
+        h = 31 * h + rgb;
+        h = 31 * h + Objects.hashCode(otherTreeData);
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newTable(int capacity) {
+        return (Entry<T>[]) new Entry<?>[capacity];
+    }
+}
@@ -0,0 +1,83 @@
+package DesignPatterns.Flyweight;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps flyweight tree types to the small ids stored per tree. Ids of
+ * released types are handed out again, so a forest whose types come and
+ * go does not run out of them.
+ */
+class TreeTypeTable {
+    static final int MAX_TYPES = Short.MAX_VALUE + 1;
+
+    // Null where a released type was
+    private final List<ITreeType> types = new ArrayList<>();
+    private final Map<ITreeType, Integer> ids = new IdentityHashMap<>();
+    private final IntList free = new IntList();
+
+    int idOf(ITreeType type) {
+        Integer id = ids.get(type);
+        if (id == null) {
+            if (free.size() > 0) {
+                id = free.removeLast();
+                types.set(id, type);
+            } else {
+                if (types.size() == MAX_TYPES) {
+                    throw new IllegalStateException("Too many tree types: " + MAX_TYPES);
+                }
+                id = types.size();
+                types.add(type);
+            }
+            ids.put(type, id);
+        }
+        return id;
+    }
+
+    boolean contains(ITreeType type) {
+        return ids.containsKey(type);
+    }
+
+    /**
+     * Appends {@code type} under the next id, or a free slot if it is null,
+     * to rebuild a saved table id for id.
+     */
+    void load(ITreeType type) {
+        if (type == null) {
+            free.add(types.size());
+            types.add(null);
+        } else {
+            idOf(type);
+        }
+    }
+
+    /**
+     * Forgets {@code type}, which no tree may use any more, and frees its id.
+     * Returns whether the table held it.
+     */
+    boolean release(ITreeType type) {
+        Integer id = ids.remove(type);
+        if (id == null) {
+            return false;
+        }
+        types.set(id, null);
+        free.add(id);
+        return true;
+    }
+
+    /**
+     * The type with {@code id}, or null if that id is free.
+     */
+    ITreeType get(int id) {
+        return types.get(id);
+    }
+
+    /**
+     * Number of ids in use or free; every id is below it.
+     */
+    int size() {
+        return types.size();
+    }
+}
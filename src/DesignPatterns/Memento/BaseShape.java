@@ -3,10 +3,18 @@ package DesignPatterns.Memento;
 import java.awt.*;
 
 public abstract class BaseShape implements Shape {
+    // How far outside its bounds a shape may paint: selection outlines and dots
+    static final int PAINT_MARGIN = 2;
+    private static final Stroke SELECTION_STROKE = new BasicStroke(1.0f,
+            BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, new float[]{2.0f}, 0.0f);
+    private static final Stroke DEFAULT_STROKE = new BasicStroke();
+
+    private int id;
     int x, y;
     private int dx = 0, dy = 0;
     private Color color;
     private boolean selected = false;
+    private CompoundShape parent;
 
     BaseShape(int x, int y, Color color) {
         this.x = x;
@@ -14,6 +22,30 @@ public abstract class BaseShape implements Shape {
         this.color = color;
     }
 
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    void setParent(CompoundShape parent) {
+        this.parent = parent;
+    }
+
+    CompoundShape getParent() {
+        return parent;
+    }
+
+    // Tells the enclosing compounds that their cached bounds are stale.
+    void boundsChanged() {
+        if (parent != null) {
+            parent.childBoundsChanged(this);
+        }
+    }
+
     @Override
     public int getX() {
         return x;
@@ -44,18 +76,21 @@ public abstract class BaseShape implements Shape {
     public void moveTo(int x, int y) {
         this.x = dx + x;
         this.y = dy + y;
+        boundsChanged();
     }
 
     @Override
     public void moveBy(int x, int y) {
         this.x += x;
         this.y += y;
+        boundsChanged();
     }
 
     @Override
     public void drop() {
         this.x = dx;
         this.y = dy;
+        boundsChanged();
     }
 
     @Override
@@ -74,14 +109,31 @@ public abstract class BaseShape implements Shape {
         this.color = color;
     }
 
+    // Sets this shape's own color only, even for compounds; used to undo recolors.
+    void restoreColor(Color color) {
+        this.color = color;
+    }
+
     @Override
     public void select() {
-        selected = true;
+        if (!selected) {
+            selected = true;
+            selectionChanged();
+        }
     }
 
     @Override
     public void unSelect() {
-        selected = false;
+        if (selected) {
+            selected = false;
+            selectionChanged();
+        }
+    }
+
+    private void selectionChanged() {
+        if (parent != null) {
+            parent.childSelectionChanged(this);
+        }
     }
 
     @Override
@@ -90,20 +142,24 @@ public abstract class BaseShape implements Shape {
     }
 
     void enableSelectionStyle(Graphics graphics) {
+        selectionStyle(graphics);
+    }
+
+    void disableSelectionStyle(Graphics graphics) {
+        normalStyle(graphics, color);
+    }
+
+    static void selectionStyle(Graphics graphics) {
         graphics.setColor(Color.LIGHT_GRAY);
 
         Graphics2D g2 = (Graphics2D) graphics;
-        float[] dash1 = {2.0f};
-        g2.setStroke(new BasicStroke(1.0f,
-                BasicStroke.CAP_BUTT,
-                BasicStroke.JOIN_MITER,
-                2.0f, dash1, 0.0f));
+        g2.setStroke(SELECTION_STROKE);
     }
 
-    void disableSelectionStyle(Graphics graphics) {
+    static void normalStyle(Graphics graphics, Color color) {
         graphics.setColor(color);
         Graphics2D g2 = (Graphics2D) graphics;
-        g2.setStroke(new BasicStroke());
+        g2.setStroke(DEFAULT_STROKE);
     }
 
     @Override
@@ -0,0 +1,126 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+
+/**
+ * Times bounds queries on deeply nested compounds: the cached bounds of
+ * {@link CompoundShape}, both warm and right after a deep leaf moved,
+ * against recomputing them from the children on every call as
+ * CompoundShape used to.
+ */
+public class BoundsBenchmark {
+    static int[] DEPTHS = {1, 5, 10, 20, 50};
+    static int FAN_OUT = 8;
+    static int QUERIES = 2000;
+    static int ROUNDS = 5;
+    // Keeps the queries from being optimized away
+    static volatile int sink;
+
+    public static void main(String[] args) {
+        System.out.printf("%6s %8s %14s %14s %14s%n", "depth", "shapes",
+                "uncached", "cached warm", "after move");
+        for (int depth : DEPTHS) {
+            Dot deepest = new Dot(0, 0, Color.BLACK);
+            CompoundShape root = nested(depth, deepest);
+            int shapes = count(root);
+
+            long uncached = Long.MAX_VALUE, warm = Long.MAX_VALUE, moved = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                int queries = depth > 10 ? QUERIES / 100 : QUERIES;
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    sink += uncachedWidth(root) + uncachedHeight(root);
+                }
+                uncached = Math.min(uncached, (System.nanoTime() - start) / queries);
+
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    sink += root.getWidth() + root.getHeight();
+                }
+                warm = Math.min(warm, (System.nanoTime() - start) / QUERIES);
+
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    deepest.moveBy(1, 1);
+                    sink += root.getWidth() + root.getHeight();
+                }
+                moved = Math.min(moved, (System.nanoTime() - start) / QUERIES);
+            }
+            System.out.printf("%6d %8d %12dns %12dns %12dns%n", depth, shapes,
+                    uncached, warm, moved);
+        }
+    }
+
+    /**
+     * {@code depth} levels of compounds, each holding {@link #FAN_OUT} dots
+     * and the next level; {@code deepest} goes into the innermost one.
+     */
+    static CompoundShape nested(int depth, Shape deepest) {
+        Shape inner = deepest;
+        for (int level = depth; level > 0; level--) {
+            CompoundShape compound = new CompoundShape(inner);
+            for (int i = 0; i < FAN_OUT; i++) {
+                compound.add(new Dot(level * 10 + i, level * 10 - i, Color.BLACK));
+            }
+            inner = compound;
+        }
+        return (CompoundShape) inner;
+    }
+
+    private static int count(Shape shape) {
+        int count = 1;
+        if (shape instanceof CompoundShape) {
+            for (Shape child : ((CompoundShape) shape).getChildren()) {
+                count += count(child);
+            }
+        }
+        return count;
+    }
+
+    // What CompoundShape.getX/getWidth did before bounds were cached
+    private static int uncachedX(Shape shape) {
+        if (!(shape instanceof CompoundShape)) {
+            return shape.getX();
+        }
+        int x = Integer.MAX_VALUE;
+        for (Shape child : ((CompoundShape) shape).getChildren()) {
+            x = Math.min(x, uncachedX(child));
+        }
+        return x == Integer.MAX_VALUE ? 0 : x;
+    }
+
+    private static int uncachedY(Shape shape) {
+        if (!(shape instanceof CompoundShape)) {
+            return shape.getY();
+        }
+        int y = Integer.MAX_VALUE;
+        for (Shape child : ((CompoundShape) shape).getChildren()) {
+            y = Math.min(y, uncachedY(child));
+        }
+        return y == Integer.MAX_VALUE ? 0 : y;
+    }
+
+    private static int uncachedWidth(Shape shape) {
+        if (!(shape instanceof CompoundShape)) {
+            return shape.getWidth();
+        }
+        int x = uncachedX(shape);
+        int width = 0;
+        for (Shape child : ((CompoundShape) shape).getChildren()) {
+            width = Math.max(width, uncachedX(child) - x + uncachedWidth(child));
+        }
+        return width;
+    }
+
+    private static int uncachedHeight(Shape shape) {
+        if (!(shape instanceof CompoundShape)) {
+            return shape.getHeight();
+        }
+        int y = uncachedY(shape);
+        int height = 0;
+        for (Shape child : ((CompoundShape) shape).getChildren()) {
+            height = Math.max(height, uncachedY(child) - y + uncachedHeight(child));
+        }
+        return height;
+    }
+}
@@ -5,11 +5,28 @@ import javax.swing.border.Border;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.util.List;
 
-class Canvas extends java.awt.Canvas {
+class Canvas extends java.awt.Canvas implements EditorView {
     private Editor editor;
     private JFrame frame;
     private static final int PADDING = 10;
+    // Corners of the selection rectangle being dragged out from empty space
+    private Point marqueeStart, marqueeEnd;
+    private MoveCommand moveCommand;
+    // Applies the latest drag position once per frame, however fast events come in
+    private final DragCoalescer drags = new DragCoalescer(this::dragTo);
+    // Kept between frames and only reallocated when the canvas is resized
+    private BufferedImage buffer;
+    private Graphics2D bufferGraphics;
+    // Dirty regions are drawn here first, without a clip; see CompoundShape.paintedArea
+    private BufferedImage scratch;
+    private Graphics2D scratchGraphics;
+    private final java.awt.Rectangle paintedArea = new java.awt.Rectangle();
+    private boolean fullRepaint = true;
+    // Area to bring up to date on the next paint when not repainting everything
+    private int dirtyMinX = Integer.MAX_VALUE, dirtyMinY = Integer.MAX_VALUE;
+    private int dirtyMaxX = Integer.MIN_VALUE, dirtyMaxY = Integer.MIN_VALUE;
 
     Canvas(Editor editor) {
         this.editor = editor;
@@ -31,6 +48,7 @@ class Canvas extends java.awt.Canvas {
         frame.setContentPane(contentPanel);
 
         contentPanel.add(new JLabel("Select and drag to move."), BorderLayout.PAGE_END);
+        contentPanel.add(new JLabel("Drag over empty space to select an area."), BorderLayout.PAGE_END);
         contentPanel.add(new JLabel("Right click to change color."), BorderLayout.PAGE_END);
         contentPanel.add(new JLabel("Undo: Ctrl+Z, Redo: Ctrl+R"), BorderLayout.PAGE_END);
         contentPanel.add(this);
@@ -82,6 +100,7 @@ class Canvas extends java.awt.Canvas {
                     if (!ctrl) {
                         editor.getShapes().unSelect();
                     }
+                    marqueeStart = e.getPoint();
                 } else {
                     if (ctrl) {
                         if (target.isSelected()) {
@@ -103,29 +122,48 @@ class Canvas extends java.awt.Canvas {
 
 
         MouseAdapter dragger = new MouseAdapter() {
-            MoveCommand moveCommand;
+            @Override
+            public void mousePressed(MouseEvent e) {
+                // Every drag, move or marquee, starts its stats afresh
+                if (e.getButton() == MouseEvent.BUTTON1) {
+                    drags.resetStats();
+                }
+            }
 
             @Override
             public void mouseDragged(MouseEvent e) {
                 if ((e.getModifiersEx() & MouseEvent.BUTTON1_DOWN_MASK) != MouseEvent.BUTTON1_DOWN_MASK) {
                     return;
                 }
-                if (moveCommand == null) {
+                if (marqueeStart == null && moveCommand == null) {
                     moveCommand = new MoveCommand(editor);
                     moveCommand.start(e.getX(), e.getY());
                 }
-                moveCommand.move(e.getX(), e.getY());
-                repaint();
+                drags.offer(e.getX(), e.getY());
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (e.getButton() != MouseEvent.BUTTON1 || moveCommand == null) {
+                if (e.getButton() != MouseEvent.BUTTON1) {
+                    return;
+                }
+                drags.flush();
+                if (marqueeStart != null) {
+                    java.awt.Rectangle marquee = marquee();
+                    if (marquee != null) {
+                        editor.getShapes().selectChildrenWithin(marquee.x, marquee.y, marquee.width, marquee.height);
+                    }
+                    marqueeStart = null;
+                    marqueeEnd = null;
+                    repaint();
+                    return;
+                }
+                if (moveCommand == null) {
                     return;
                 }
                 moveCommand.stop(e.getX(), e.getY());
                 editor.execute(moveCommand);
-                this.moveCommand = null;
+                moveCommand = null;
                 repaint();
             }
         };
@@ -133,6 +171,94 @@ class Canvas extends java.awt.Canvas {
         addMouseMotionListener(dragger);
     }
 
+    /**
+     * Event and latency counts of the current or last drag.
+     */
+    DragCoalescer getDragStats() {
+        return drags;
+    }
+
+    private void dragTo(int x, int y) {
+        if (marqueeStart != null) {
+            marqueeEnd = new Point(x, y);
+            // The marquee is drawn over the buffer, which stays as it is
+            super.repaint();
+            return;
+        }
+        if (moveCommand == null) {
+            return;
+        }
+        List<Shape> dragged = moveCommand.getDragged();
+        for (int i = 0; i < dragged.size(); i++) {
+            invalidate(dragged.get(i));
+        }
+        moveCommand.move(x, y);
+        for (int i = 0; i < dragged.size(); i++) {
+            invalidate(dragged.get(i));
+        }
+        repaintDirty();
+    }
+
+    // Adds the area a shape currently paints to the dirty region.
+    private void invalidate(Shape shape) {
+        dirtyMinX = Math.min(dirtyMinX, shape.getX() - BaseShape.PAINT_MARGIN);
+        dirtyMinY = Math.min(dirtyMinY, shape.getY() - BaseShape.PAINT_MARGIN);
+        dirtyMaxX = Math.max(dirtyMaxX, shape.getX() + shape.getWidth() + BaseShape.PAINT_MARGIN);
+        dirtyMaxY = Math.max(dirtyMaxY, shape.getY() + shape.getHeight() + BaseShape.PAINT_MARGIN);
+    }
+
+    private boolean isDirty() {
+        return dirtyMinX <= dirtyMaxX;
+    }
+
+    private void repaintDirty() {
+        if (isDirty()) {
+            super.repaint(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX + 1, dirtyMaxY - dirtyMinY + 1);
+        }
+    }
+
+    /**
+     * Repaints every shape. Only drags, which know what they moved, use the
+     * dirty region instead.
+     */
+    @Override
+    public void repaint() {
+        fullRepaint = true;
+        super.repaint();
+    }
+
+    private void paintDirty(CompoundShape shapes) {
+        int x = dirtyMinX, y = dirtyMinY;
+        int width = dirtyMaxX - dirtyMinX + 1, height = dirtyMaxY - dirtyMinY + 1;
+        shapes.paintedArea(x, y, width, height, paintedArea);
+        if (scratch == null || scratch.getWidth() < paintedArea.width || scratch.getHeight() < paintedArea.height) {
+            if (scratchGraphics != null) {
+                scratchGraphics.dispose();
+            }
+            int scratchWidth = Math.max(paintedArea.width, scratch == null ? 0 : scratch.getWidth());
+            int scratchHeight = Math.max(paintedArea.height, scratch == null ? 0 : scratch.getHeight());
+            scratch = new BufferedImage(scratchWidth, scratchHeight, BufferedImage.TYPE_INT_RGB);
+            scratchGraphics = scratch.createGraphics();
+            scratchGraphics.setBackground(Color.WHITE);
+        }
+        scratchGraphics.translate(-paintedArea.x, -paintedArea.y);
+        scratchGraphics.clearRect(paintedArea.x, paintedArea.y, paintedArea.width, paintedArea.height);
+        shapes.paint(scratchGraphics, x, y, width, height);
+        scratchGraphics.translate(paintedArea.x, paintedArea.y);
+
+        int sx = x - paintedArea.x, sy = y - paintedArea.y;
+        bufferGraphics.drawImage(scratch, x, y, x + width, y + height, sx, sy, sx + width, sy + height, null);
+    }
+
+    private java.awt.Rectangle marquee() {
+        if (marqueeStart == null || marqueeEnd == null) {
+            return null;
+        }
+        java.awt.Rectangle marquee = new java.awt.Rectangle(marqueeStart);
+        marquee.add(marqueeEnd);
+        return marquee;
+    }
+
     public int getWidth() {
         return editor.getShapes().getX() + editor.getShapes().getWidth() + PADDING;
     }
@@ -141,7 +267,8 @@ class Canvas extends java.awt.Canvas {
         return editor.getShapes().getY() + editor.getShapes().getHeight() + PADDING;
     }
 
-    void refresh() {
+    @Override
+    public void refresh() {
         this.setSize(getWidth(), getHeight());
         frame.pack();
     }
@@ -151,13 +278,37 @@ class Canvas extends java.awt.Canvas {
     }
 
     public void paint(Graphics graphics) {
-        BufferedImage buffer = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D ig2 = buffer.createGraphics();
-        ig2.setBackground(Color.WHITE);
-        ig2.clearRect(0, 0, this.getWidth(), this.getHeight());
+        int width = this.getWidth();
+        int height = this.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height) {
+            if (bufferGraphics != null) {
+                bufferGraphics.dispose();
+            }
+            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            bufferGraphics = buffer.createGraphics();
+            bufferGraphics.setBackground(Color.WHITE);
+            fullRepaint = true;
+        }
 
-        editor.getShapes().paint(buffer.getGraphics());
+        CompoundShape shapes = editor.getShapes();
+        if (fullRepaint) {
+            bufferGraphics.clearRect(0, 0, width, height);
+            shapes.paint(bufferGraphics);
+        } else if (isDirty()) {
+            paintDirty(shapes);
+        }
+        fullRepaint = false;
+        dirtyMinX = dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxY = Integer.MIN_VALUE;
 
         graphics.drawImage(buffer, 0, 0, null);
+        java.awt.Rectangle marquee = marquee();
+        if (marquee != null) {
+            BaseShape.selectionStyle(graphics);
+            graphics.drawRect(marquee.x, marquee.y, marquee.width, marquee.height);
+        }
     }
 }
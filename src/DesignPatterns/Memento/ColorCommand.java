@@ -1,10 +1,13 @@
 package DesignPatterns.Memento;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 
-public class ColorCommand implements Command {
+public class ColorCommand implements UndoableCommand {
     private Editor editor;
     private Color color;
+    private Delta delta;
 
     public ColorCommand(Editor editor, Color color) {
         this.editor = editor;
@@ -18,8 +21,42 @@ public class ColorCommand implements Command {
 
     @Override
     public void execute() {
-        for (Shape child : editor.getShapes().getSelected()) {
-            child.setColor(color);
+        List<Shape> selected = editor.getShapes().getSelection();
+        int[] targets = new int[selected.size()];
+        List<Shape> affected = new ArrayList<>();
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = selected.get(i).getId();
+            collect(selected.get(i), affected);
+        }
+        int[] ids = new int[affected.size()];
+        Color[] oldColors = new Color[affected.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = affected.get(i).getId();
+            oldColors[i] = affected.get(i).getColor();
+        }
+
+        for (int i = 0; i < selected.size(); i++) {
+            selected.get(i).setColor(color);
+        }
+        delta = new ColorDelta(editor, targets, color, ids, oldColors);
+    }
+
+    @Override
+    public Delta getDelta() {
+        return delta;
+    }
+
+    // Recoloring a compound recolors everything below it
+    private static void collect(Shape shape, List<Shape> affected) {
+        affected.add(shape);
+        if (shape instanceof CompoundShape) {
+            for (Shape child : ((CompoundShape) shape).getChildren()) {
+                collect(child, affected);
+            }
+        } else if (shape instanceof PersistentShape) {
+            for (Shape child : ((PersistentShape) shape).getChildren()) {
+                collect(child, affected);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+
+class ColorDelta implements Delta {
+    private final Editor editor;
+    private final int[] targets;
+    private final Color color;
+    // Every recolored shape, compounds and their descendants included, with its old color
+    private final int[] ids;
+    private final Color[] oldColors;
+
+    ColorDelta(Editor editor, int[] targets, Color color, int[] ids, Color[] oldColors) {
+        this.editor = editor;
+        this.targets = targets;
+        this.color = color;
+        this.ids = ids;
+        this.oldColors = oldColors;
+    }
+
+    int[] getTargets() {
+        return targets;
+    }
+
+    Color getColor() {
+        return color;
+    }
+
+    int[] getIds() {
+        return ids;
+    }
+
+    Color[] getOldColors() {
+        return oldColors;
+    }
+
+    @Override
+    public void undo() {
+        for (int i = 0; i < ids.length; i++) {
+            Shape shape = editor.findShape(ids[i]);
+            if (shape instanceof BaseShape) {
+                ((BaseShape) shape).restoreColor(oldColors[i]);
+            } else {
+                // Ids run parent first, so a persistent compound's descendants override it again
+                shape.setColor(oldColors[i]);
+            }
+        }
+    }
+
+    @Override
+    public void redo() {
+        for (int id : targets) {
+            editor.findShape(id).setColor(color);
+        }
+    }
+}
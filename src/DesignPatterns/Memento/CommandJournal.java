@@ -0,0 +1,566 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of everything the editor does, so a crash loses no more
+ * than the last group commit.
+ *
+ * A directory holds one {@code checkpoint}, a full snapshot tagged with an
+ * epoch, and {@code journal-<epoch>}, the commands executed since. Moves,
+ * recolors and the undos and redos of either are logged as small records
+ * carrying their deltas. Anything that cannot be, such as an undo that had
+ * to restore a memento, is followed by a fresh checkpoint instead, as is
+ * every {@code checkpointInterval}-th record. Recovered history reaches back
+ * to the checkpoint, not further.
+ *
+ * Records are framed by length and CRC32, so a write torn by the crash is
+ * recognized and dropped. The editor thread only encodes records. A writer
+ * thread appends whatever has queued up and forces it to disk with a single
+ * fsync per batch, so the fsync cost is shared by every command that
+ * arrived while the previous one ran.
+ */
+class CommandJournal implements Closeable {
+    static final int DEFAULT_CHECKPOINT_INTERVAL = 100_000;
+
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final int CHECKPOINT_MAGIC = 0x4D4A4350;
+    private static final int FRAME_BYTES = 8;
+
+    private static final byte MOVE = 1;
+    private static final byte COLOR = 2;
+    private static final byte UNDO = 3;
+    private static final byte REDO = 4;
+
+    private final Path directory;
+    private final Editor editor;
+    private final int checkpointInterval;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private long epoch;
+    private int sinceCheckpoint;
+    // Commands logged since the checkpoint that history can currently undo
+    // and redo. Replay rebuilds history from the checkpoint on, so an undo
+    // or redo reaching past these has to be a checkpoint rather than a record.
+    private int undoable, redoable;
+    private volatile IOException failure;
+
+    // Touched by the writer thread only
+    private FileChannel channel;
+    private ByteBuffer batch = ByteBuffer.allocateDirect(256 * 1024);
+    private final ShapeCodec writerCodec = new ShapeCodec();
+    private final CRC32 crc = new CRC32();
+
+    private static final class Entry {
+        final byte[] record;
+        final ShapeCodec.Capture checkpoint;
+        final long epoch;
+        final CountDownLatch synced;
+        final boolean close;
+
+        Entry(byte[] record, ShapeCodec.Capture checkpoint, long epoch, CountDownLatch synced, boolean close) {
+            this.record = record;
+            this.checkpoint = checkpoint;
+            this.epoch = epoch;
+            this.synced = synced;
+            this.close = close;
+        }
+    }
+
+    // Stands in for the original command when history is rebuilt from the log
+    private static final class ReplayedCommand implements UndoableCommand {
+        private final String name;
+        private final Delta delta;
+
+        ReplayedCommand(String name, Delta delta) {
+            this.name = name;
+            this.delta = delta;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void execute() {
+            delta.redo();
+        }
+
+        @Override
+        public Delta getDelta() {
+            return delta;
+        }
+    }
+
+    private CommandJournal(Path directory, Editor editor, int checkpointInterval, long epoch, FileChannel channel) {
+        this.directory = directory;
+        this.editor = editor;
+        this.checkpointInterval = checkpointInterval;
+        this.epoch = epoch;
+        this.channel = channel;
+        this.writer = new Thread(this::writeLoop, "command-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the journal in {@code directory}. If it holds one, the editor's
+     * shapes are replaced by its checkpoint, {@code history} is cleared, and
+     * every intact record after the checkpoint is replayed into both.
+     * Otherwise the editor's current shapes become the first checkpoint.
+     */
+    static CommandJournal open(Path directory, Editor editor, History history, int checkpointInterval)
+            throws IOException {
+        Files.createDirectories(directory);
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        CommandJournal journal;
+        if (Files.exists(checkpoint)) {
+            long epoch = restoreCheckpoint(checkpoint, editor);
+            Path file = directory.resolve(JOURNAL_PREFIX + epoch);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Its commands were made on shapes the checkpoint just replaced
+            history.clear();
+            int records = replay(channel, editor, history);
+            journal = new CommandJournal(directory, editor, checkpointInterval, epoch, channel);
+            journal.sinceCheckpoint = records;
+            journal.undoable = history.getUndoCount();
+            journal.redoable = history.getRedoCount();
+        } else {
+            journal = new CommandJournal(directory, editor, checkpointInterval, 0, null);
+            journal.checkpoint();
+            journal.sync();
+        }
+        journal.deleteStaleJournals();
+        return journal;
+    }
+
+    private static long restoreCheckpoint(Path checkpoint, Editor editor) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+        if (in.remaining() < 20 || in.getInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Not a journal checkpoint: " + checkpoint);
+        }
+        long epoch = in.getLong();
+        int length = in.getInt();
+        int checksum = in.getInt();
+        if (length != in.remaining()) {
+            throw new IOException("Truncated journal checkpoint: " + checkpoint);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt journal checkpoint: " + checkpoint);
+        }
+        byte[] snapshot = new byte[length];
+        in.get(snapshot);
+        editor.restore(snapshot);
+        return epoch;
+    }
+
+    // Applies every intact record, cuts off whatever follows them, and
+    // returns how many there were.
+    private static int replay(FileChannel channel, Editor editor, History history) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        int records = 0;
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= FRAME_BYTES) {
+            int start = in.position();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                in.position(start);
+                break;
+            }
+            ByteBuffer payload = in.slice(in.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                in.position(start);
+                break;
+            }
+            apply(payload, editor, history);
+            records++;
+            in.position(in.position() + length);
+        }
+        channel.truncate(in.position());
+        channel.position(in.position());
+        return records;
+    }
+
+    private static void apply(ByteBuffer in, Editor editor, History history) {
+        byte type = in.get(0);
+        switch (type) {
+            case MOVE, COLOR -> {
+                Delta delta = readDelta(in, editor);
+                delta.redo();
+                history.push(new ReplayedCommand(nameOf(delta), delta), null);
+            }
+            // Only logged for commands replayed before them, so history always has one
+            case UNDO -> history.undo();
+            case REDO -> history.redo();
+            default -> throw new IllegalStateException("Unknown journal record " + type);
+        }
+    }
+
+    // Mirrors the names MoveCommand and ColorCommand give themselves
+    private static String nameOf(Delta delta) {
+        if (delta instanceof MoveDelta) {
+            MoveDelta move = (MoveDelta) delta;
+            return "Move by X:" + move.getDx() + " Y:" + move.getDy();
+        }
+        return "Colorize: " + ((ColorDelta) delta).getColor().toString();
+    }
+
+    /**
+     * Logs a command that just ran.
+     */
+    void executed(Command command) {
+        Delta delta = command instanceof UndoableCommand ? ((UndoableCommand) command).getDelta() : null;
+        if (!(delta instanceof MoveDelta || delta instanceof ColorDelta) || ++sinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+            return;
+        }
+        undoable++;
+        redoable = 0;
+        record.clear();
+        writeDelta(delta);
+        submit(new Entry(Arrays.copyOf(record.array(), record.position()), null, 0, null, false));
+    }
+
+    /**
+     * Logs an undo that went through {@code delta}, or through a memento if
+     * it is null.
+     */
+    void undone(Delta delta) {
+        undone(delta, 1);
+    }
+
+    /**
+     * Logs {@code count} undos made in one jump, with {@code delta} null if
+     * any of them restored a memento.
+     */
+    void undone(Delta delta, int count) {
+        if (delta == null || undoable < count || (sinceCheckpoint += count) >= checkpointInterval) {
+            checkpoint();
+            return;
+        }
+        undoable -= count;
+        redoable += count;
+        for (int i = 0; i < count; i++) {
+            submit(new Entry(new byte[] {UNDO}, null, 0, null, false));
+        }
+    }
+
+    void redone(Delta delta) {
+        redone(delta, 1);
+    }
+
+    void redone(Delta delta, int count) {
+        if (delta == null || redoable < count || (sinceCheckpoint += count) >= checkpointInterval) {
+            checkpoint();
+            return;
+        }
+        redoable -= count;
+        undoable += count;
+        for (int i = 0; i < count; i++) {
+            submit(new Entry(new byte[] {REDO}, null, 0, null, false));
+        }
+    }
+
+    /**
+     * Snapshots the editor's shapes as the new starting point for recovery
+     * and starts an empty journal after it.
+     */
+    void checkpoint() {
+        sinceCheckpoint = 0;
+        undoable = 0;
+        redoable = 0;
+        submit(new Entry(null, editor.capture(), ++epoch, null, false));
+    }
+
+    /**
+     * Blocks until everything logged so far is on disk.
+     */
+    void sync() throws IOException {
+        CountDownLatch synced = new CountDownLatch(1);
+        submit(new Entry(null, null, 0, synced, false));
+        try {
+            synced.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the journal", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        CountDownLatch synced = new CountDownLatch(1);
+        submit(new Entry(null, null, 0, synced, true));
+        try {
+            synced.await();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the journal", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void submit(Entry entry) {
+        if (failure != null) {
+            throw new UncheckedIOException("Command journal failed", failure);
+        }
+        queue.add(entry);
+    }
+
+    private void writeDelta(Delta delta) {
+        if (delta instanceof MoveDelta) {
+            MoveDelta move = (MoveDelta) delta;
+            ensureRecord(1 + 5 * (move.getIds().length + 3));
+            record.put(MOVE);
+            writeIds(move.getIds());
+            writeVarint(zigzag(move.getDx()));
+            writeVarint(zigzag(move.getDy()));
+            return;
+        }
+        ColorDelta color = (ColorDelta) delta;
+        ensureRecord(1 + 5 * (color.getTargets().length + 2) + 10 * color.getIds().length + 4);
+        record.put(COLOR);
+        writeIds(color.getTargets());
+        record.putInt(color.getColor().getRGB());
+        writeIds(color.getIds());
+        // Shapes may have no color of their own, which undo has to restore too
+        for (Color old : color.getOldColors()) {
+            if (old == null) {
+                record.put((byte) 0);
+            } else {
+                record.put((byte) 1);
+                record.putInt(old.getRGB());
+            }
+        }
+    }
+
+    private static Delta readDelta(ByteBuffer in, Editor editor) {
+        byte type = in.get();
+        if (type == MOVE) {
+            int[] ids = readIds(in);
+            int dx = unzigzag(readVarint(in));
+            int dy = unzigzag(readVarint(in));
+            return new MoveDelta(editor, ids, dx, dy);
+        }
+        if (type == COLOR) {
+            int[] targets = readIds(in);
+            Color color = new Color(in.getInt(), true);
+            int[] ids = readIds(in);
+            Color[] oldColors = new Color[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                oldColors[i] = in.get() == 0 ? null : new Color(in.getInt(), true);
+            }
+            return new ColorDelta(editor, targets, color, ids, oldColors);
+        }
+        throw new IllegalStateException("Unknown journal delta " + type);
+    }
+
+    private void ensureRecord(int bytes) {
+        if (record.capacity() < bytes) {
+            record = ByteBuffer.allocate(Math.max(bytes, record.capacity() * 2));
+        }
+    }
+
+    private void writeIds(int[] ids) {
+        writeVarint(ids.length);
+        for (int id : ids) {
+            writeVarint(id);
+        }
+    }
+
+    private static int[] readIds(ByteBuffer in) {
+        int[] ids = new int[readVarint(in)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = readVarint(in);
+        }
+        return ids;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            record.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        record.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in journal");
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void writeLoop() {
+        List<Entry> entries = new ArrayList<>();
+        boolean open = true;
+        while (open) {
+            entries.clear();
+            try {
+                entries.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(entries);
+            for (Entry entry : entries) {
+                try {
+                    if (failure != null) {
+                        // Already failed: release waiters, write nothing more
+                    } else if (entry.record != null) {
+                        append(entry.record);
+                    } else if (entry.checkpoint != null) {
+                        force();
+                        writeCheckpoint(entry.checkpoint, entry.epoch);
+                    } else {
+                        force();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                if (entry.close) {
+                    open = false;
+                    closeChannel();
+                }
+                if (entry.synced != null) {
+                    entry.synced.countDown();
+                }
+            }
+            try {
+                if (failure == null) {
+                    force();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void append(byte[] payload) throws IOException {
+        if (batch.remaining() < FRAME_BYTES + payload.length) {
+            flushBatch();
+            if (batch.capacity() < FRAME_BYTES + payload.length) {
+                batch = ByteBuffer.allocateDirect(FRAME_BYTES + payload.length);
+            }
+        }
+        crc.reset();
+        crc.update(payload);
+        batch.putInt(payload.length);
+        batch.putInt((int) crc.getValue());
+        batch.put(payload);
+    }
+
+    private void flushBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+    }
+
+    // Group commit: one fsync for everything appended since the last one
+    private void force() throws IOException {
+        if (channel != null && batch.position() > 0) {
+            flushBatch();
+            channel.force(false);
+        }
+    }
+
+    private void writeCheckpoint(ShapeCodec.Capture capture, long epoch) throws IOException {
+        byte[] snapshot = writerCodec.encode(capture);
+        crc.reset();
+        crc.update(snapshot);
+        ByteBuffer out = ByteBuffer.allocate(20 + snapshot.length);
+        out.putInt(CHECKPOINT_MAGIC).putLong(epoch).putInt(snapshot.length).putInt((int) crc.getValue()).put(snapshot);
+        out.flip();
+
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        // The new epoch's journal must exist before the checkpoint points at it
+        FileChannel next = FileChannel.open(directory.resolve(JOURNAL_PREFIX + epoch), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        closeChannel();
+        channel = next;
+        Files.deleteIfExists(directory.resolve(JOURNAL_PREFIX + (epoch - 1)));
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void deleteStaleJournals() throws IOException {
+        sync();
+        String current = JOURNAL_PREFIX + epoch;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
@@ -3,10 +3,31 @@ package DesignPatterns.Memento;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CompoundShape extends BaseShape {
+    // Below this many children a linear scan beats the index
+    private static final int INDEX_THRESHOLD = 32;
+
     private List<Shape> children = new ArrayList<>();
+    // Bounding box of the children; the first four are only meaningful while boundsValid.
+    // A valid compound only ever has valid compounds below it, so invalidation can stop
+    // at the first ancestor that is already stale.
+    private transient int minX, minY, maxX, maxY;
+    private transient boolean boundsValid;
+    // Built on the first hit test, dropped whenever the child list changes
+    private transient ShapeIndex index;
+    // Selected children in no particular order, kept current by the children
+    // themselves, with each one's position for constant-time removal. Built
+    // from the children on first use, as after deserialization.
+    private transient List<Shape> selection;
+    private transient Map<Shape, Integer> selectionSlots;
+    private transient List<Shape> selectionView;
+    // Set on an editor's top-level compound, which hands out ids to shapes added below it
+    private transient Editor editor;
 
     public CompoundShape(Shape... components) {
         super(0, 0, Color.BLACK);
@@ -15,78 +36,180 @@ public class CompoundShape extends BaseShape {
 
     public void add(Shape component) {
         children.add(component);
+        attach(component, this);
+        childListChanged();
     }
 
     public void add(Shape... components) {
         children.addAll(Arrays.asList(components));
+        for (Shape component : components) {
+            attach(component, this);
+        }
+        childListChanged();
     }
 
     public void remove(Shape child) {
-        children.remove(child);
+        if (children.remove(child)) {
+            attach(child, null);
+            childListChanged();
+        }
     }
 
     public void remove(Shape... components) {
-        children.removeAll(Arrays.asList(components));
+        boolean removed = false;
+        for (Shape component : components) {
+            // Shapes that were never children keep their own parent
+            if (children.remove(component)) {
+                attach(component, null);
+                removed = true;
+            }
+        }
+        if (removed) {
+            childListChanged();
+        }
+    }
+
+    void setEditor(Editor editor) {
+        this.editor = editor;
+    }
+
+    List<Shape> getChildren() {
+        return Collections.unmodifiableList(children);
     }
 
     public void clear() {
+        for (Shape child : children) {
+            attach(child, null);
+        }
         children.clear();
+        childListChanged();
     }
 
-    @Override
-    public int getX() {
-        if (children.size() == 0) {
-            return 0;
+    private void attach(Shape child, CompoundShape parent) {
+        if (parent == this) {
+            CompoundShape root = this;
+            while (root.getParent() != null) {
+                root = root.getParent();
+            }
+            if (root.editor != null) {
+                root.editor.register(child);
+            }
         }
-        int x = children.get(0).getX();
-        for (Shape child : children) {
-            if (child.getX() < x) {
-                x = child.getX();
+        if (child instanceof BaseShape) {
+            ((BaseShape) child).setParent(parent);
+        } else if (child instanceof PersistentShape) {
+            ((PersistentShape) child).setParent(parent);
+        }
+        selection();
+        if (parent == this ? child.isSelected() : selectionSlots.containsKey(child)) {
+            childSelectionChanged(child, parent == this);
+        }
+    }
+
+    /**
+     * Called by a child that was selected or unselected.
+     */
+    void childSelectionChanged(Shape child) {
+        childSelectionChanged(child, child.isSelected());
+    }
+
+    private void childSelectionChanged(Shape child, boolean selected) {
+        List<Shape> selection = selection();
+        Integer slot = selectionSlots.get(child);
+        if (selected && slot == null) {
+            selectionSlots.put(child, selection.size());
+            selection.add(child);
+        } else if (!selected && slot != null) {
+            Shape last = selection.remove(selection.size() - 1);
+            if (last != child) {
+                selection.set(slot, last);
+                selectionSlots.put(last, slot);
             }
+            selectionSlots.remove(child);
         }
-        return x;
     }
 
-    @Override
-    public int getY() {
-        if (children.size() == 0) {
-            return 0;
+    /**
+     * Called by a child whose position or extent changed.
+     */
+    void childBoundsChanged(Shape child) {
+        if (index != null) {
+            index.moved(child);
         }
-        int y = children.get(0).getY();
-        for (Shape child : children) {
-            if (child.getY() < y) {
-                y = child.getY();
+        invalidateBounds();
+    }
+
+    /**
+     * For when every child may have changed without telling this compound,
+     * as when a persistent document jumps to another snapshot.
+     */
+    void childrenChanged() {
+        if (index != null) {
+            index.movedAll();
+        }
+        invalidateBounds();
+    }
+
+    private void childListChanged() {
+        index = null;
+        invalidateBounds();
+    }
+
+    private void invalidateBounds() {
+        if (boundsValid) {
+            boundsValid = false;
+            boundsChanged();
+        }
+    }
+
+    private void updateBounds() {
+        if (boundsValid) {
+            return;
+        }
+        if (children.isEmpty()) {
+            minX = minY = maxX = maxY = 0;
+        } else if (index != null) {
+            minX = index.getMinX();
+            minY = index.getMinY();
+            maxX = index.getMaxX();
+            maxY = index.getMaxY();
+        } else {
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+            for (Shape child : children) {
+                int x = child.getX();
+                int y = child.getY();
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x + child.getWidth());
+                maxY = Math.max(maxY, y + child.getHeight());
             }
         }
-        return y;
+        boundsValid = true;
+    }
+
+    @Override
+    public int getX() {
+        updateBounds();
+        return minX;
+    }
+
+    @Override
+    public int getY() {
+        updateBounds();
+        return minY;
     }
 
     @Override
     public int getWidth() {
-        int maxWidth = 0;
-        int x = getX();
-        for (Shape child : children) {
-            int childsRelativeX = child.getX() - x;
-            int childWidth = childsRelativeX + child.getWidth();
-            if (childWidth > maxWidth) {
-                maxWidth = childWidth;
-            }
-        }
-        return maxWidth;
+        updateBounds();
+        return maxX - minX;
     }
 
     @Override
     public int getHeight() {
-        int maxHeight = 0;
-        int y = getY();
-        for (Shape child : children) {
-            int childsRelativeY = child.getY() - y;
-            int childHeight = childsRelativeY + child.getHeight();
-            if (childHeight > maxHeight) {
-                maxHeight = childHeight;
-            }
-        }
-        return maxHeight;
+        updateBounds();
+        return maxY - minY;
     }
 
     @Override
@@ -119,6 +242,15 @@ public class CompoundShape extends BaseShape {
 
     @Override
     public boolean isInsideBounds(int x, int y) {
+        // No child reaches outside the bounds, so a deep tree is only descended where it can hit
+        updateBounds();
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        ShapeIndex index = index();
+        if (index != null) {
+            return index.firstAt(x, y) != null;
+        }
         for (Shape child : children) {
             if (child.isInsideBounds(x, y)) {
                 return true;
@@ -143,7 +275,32 @@ public class CompoundShape extends BaseShape {
         }
     }
 
+    private List<Shape> selection() {
+        if (selection == null) {
+            selection = new ArrayList<>();
+            selectionSlots = new IdentityHashMap<>();
+            for (Shape child : children) {
+                if (child.isSelected()) {
+                    selectionSlots.put(child, selection.size());
+                    selection.add(child);
+                }
+            }
+        }
+        return selection;
+    }
+
+    private ShapeIndex index() {
+        if (index == null && children.size() >= INDEX_THRESHOLD) {
+            index = new ShapeIndex(children);
+        }
+        return index;
+    }
+
     public Shape getChildAt(int x, int y) {
+        ShapeIndex index = index();
+        if (index != null) {
+            return index.firstAt(x, y);
+        }
         for (Shape child : children) {
             if (child.isInsideBounds(x, y)) {
                 return child;
@@ -161,14 +318,47 @@ public class CompoundShape extends BaseShape {
         return false;
     }
 
-    public List<Shape> getSelected() {
-        List<Shape> selected = new ArrayList<>();
+    /**
+     * Children lying entirely inside the given rectangle, in order; what a
+     * marquee drawn over the canvas selects.
+     */
+    public List<Shape> getChildrenWithin(int x, int y, int width, int height) {
+        ShapeIndex index = index();
+        if (index != null) {
+            return index.within(x, y, width, height);
+        }
+        List<Shape> within = new ArrayList<>();
         for (Shape child : children) {
-            if (child.isSelected()) {
-                selected.add(child);
+            if (child.getX() >= x && child.getX() + child.getWidth() <= x + width &&
+                    child.getY() >= y && child.getY() + child.getHeight() <= y + height) {
+                within.add(child);
             }
         }
-        return selected;
+        return within;
+    }
+
+    public boolean selectChildrenWithin(int x, int y, int width, int height) {
+        List<Shape> within = getChildrenWithin(x, y, width, height);
+        for (Shape child : within) {
+            child.select();
+        }
+        return !within.isEmpty();
+    }
+
+    public List<Shape> getSelected() {
+        return new ArrayList<>(selection());
+    }
+
+    /**
+     * Live, read-only view of the selected children, in no particular order.
+     * Unlike {@link #getSelected} it costs nothing to get and iterating it by
+     * index allocates nothing, but it changes as the selection does.
+     */
+    public List<Shape> getSelection() {
+        if (selectionView == null) {
+            selectionView = Collections.unmodifiableList(selection());
+        }
+        return selectionView;
     }
 
     @Override
@@ -183,4 +373,70 @@ public class CompoundShape extends BaseShape {
             child.paint(graphics);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sets {@code area} to what the children reaching into the given region
+     * paint, in full. Drawing them unclipped over that area gives the same
+     * pixels as a full repaint, where clipping would rasterize curves
+     * differently along the clip edge.
+     */
+    public void paintedArea(int x, int y, int width, int height, java.awt.Rectangle area) {
+        area.setBounds(x, y, width, height);
+        x -= PAINT_MARGIN;
+        y -= PAINT_MARGIN;
+        width += 2 * PAINT_MARGIN;
+        height += 2 * PAINT_MARGIN;
+        ShapeIndex index = index();
+        if (index != null) {
+            int matches = index.query(x, y, width, height, false);
+            for (int i = 0; i < matches; i++) {
+                addPaintedArea(index.match(i), area);
+            }
+            return;
+        }
+        for (Shape child : children) {
+            if (touches(child, x, y, width, height)) {
+                addPaintedArea(child, area);
+            }
+        }
+    }
+
+    private static void addPaintedArea(Shape child, java.awt.Rectangle area) {
+        area.add(child.getX() - PAINT_MARGIN, child.getY() - PAINT_MARGIN);
+        area.add(child.getX() + child.getWidth() + PAINT_MARGIN, child.getY() + child.getHeight() + PAINT_MARGIN);
+    }
+
+    private static boolean touches(Shape child, int x, int y, int width, int height) {
+        return child.getX() <= x + width && child.getX() + child.getWidth() >= x &&
+                child.getY() <= y + height && child.getY() + child.getHeight() >= y;
+    }
+
+    /**
+     * Paints only the children that can reach into the given region.
+     */
+    public void paint(Graphics graphics, int x, int y, int width, int height) {
+        x -= PAINT_MARGIN;
+        y -= PAINT_MARGIN;
+        width += 2 * PAINT_MARGIN;
+        height += 2 * PAINT_MARGIN;
+        if (isSelected()) {
+            enableSelectionStyle(graphics);
+            graphics.drawRect(getX() - 1, getY() - 1, getWidth() + 1, getHeight() + 1);
+            disableSelectionStyle(graphics);
+        }
+
+        ShapeIndex index = index();
+        if (index != null) {
+            int matches = index.query(x, y, width, height, false);
+            for (int i = 0; i < matches; i++) {
+                index.match(i).paint(graphics);
+            }
+            return;
+        }
+        for (Shape child : children) {
+            if (touches(child, x, y, width, height)) {
+                child.paint(graphics);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package DesignPatterns.Memento;
+
+/**
+ * The change one command made, recorded by shape id so it can be reverted
+ * and re-applied in time proportional to the shapes it touched.
+ */
+interface Delta {
+    void undo();
+    void redo();
+}
@@ -0,0 +1,116 @@
+package DesignPatterns.Memento;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Merges drag events that arrive faster than the screen refreshes. Only the
+ * latest position is kept, and a timer running at the display's refresh
+ * rate hands it to the target once per frame, so a high-rate mouse costs one
+ * move and one repaint per frame rather than one per event.
+ *
+ * Counts events received against positions applied, and for each applied
+ * frame the latency from the oldest event it absorbed to the moment it was
+ * applied. Everything runs on the event dispatch thread.
+ */
+class DragCoalescer {
+    interface Target {
+        void dragTo(int x, int y);
+    }
+
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final Target target;
+    private final Timer timer;
+    private boolean pending;
+    private int x, y;
+    // When the oldest event not yet applied arrived
+    private long pendingSince;
+
+    private long received;
+    private long applied;
+    private long totalLatency;
+    private long maxLatency;
+
+    DragCoalescer(Target target) {
+        this(target, refreshRate());
+    }
+
+    DragCoalescer(Target target, int framesPerSecond) {
+        this.target = target;
+        this.timer = new Timer(Math.max(1, 1000 / framesPerSecond), e -> apply());
+    }
+
+    private static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_REFRESH_RATE;
+        }
+        int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+    }
+
+    /**
+     * Records a drag to ({@code x}, {@code y}); it is applied on the next frame.
+     */
+    void offer(int x, int y) {
+        received++;
+        if (!pending) {
+            pending = true;
+            pendingSince = System.nanoTime();
+        }
+        this.x = x;
+        this.y = y;
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Applies any position still waiting for a frame and stops the timer,
+     * for when the drag ends.
+     */
+    void flush() {
+        apply();
+        timer.stop();
+    }
+
+    private void apply() {
+        if (!pending) {
+            timer.stop();
+            return;
+        }
+        pending = false;
+        target.dragTo(x, y);
+        long latency = System.nanoTime() - pendingSince;
+        applied++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getApplied() {
+        return applied;
+    }
+
+    double getAverageLatencyMillis() {
+        return applied == 0 ? 0 : totalLatency / 1e6 / applied;
+    }
+
+    double getMaxLatencyMillis() {
+        return maxLatency / 1e6;
+    }
+
+    void resetStats() {
+        received = applied = totalLatency = maxLatency = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d events, %d applied, frame latency avg %.1f ms, max %.1f ms",
+                received, applied, getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+}
@@ -1,23 +1,86 @@
 package DesignPatterns.Memento;
 
-import javax.swing.*;
-import java.io.*;
-import java.util.Base64;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class Editor extends JComponent {
-    private Canvas canvas;
+/**
+ * The document and its history. The Swing window is a {@link Canvas} on
+ * top, which {@link #headless} editors go without.
+ */
+public class Editor {
+    private final EditorView view;
     private CompoundShape allShapes = new CompoundShape();
     private History history;
+    private Shape[] shapesById = new Shape[1];
+    private int nextId = 1;
+    private final ShapeCodec codec = new ShapeCodec();
+    // Snapshots are packed on this thread, with a codec only it touches
+    private final ExecutorService encoder = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "snapshot-encoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ShapeCodec encoderCodec = new ShapeCodec();
+    // Set while the editor runs on an immutable tree instead of mutable shapes
+    private PersistentDocument document;
+    private CommandJournal journal;
 
     public Editor() {
-        canvas = new Canvas(this);
-        history = new History();
+        history = new History(new SnapshotChain(true));
+        assignIds();
+        allShapes.setEditor(this);
+        view = new Canvas(this);
+    }
+
+    private Editor(EditorView view) {
+        this.history = new History(new SnapshotChain(true));
+        assignIds();
+        allShapes.setEditor(this);
+        this.view = view;
+    }
+
+    /**
+     * An editor with no window, for servers and benchmarks.
+     */
+    public static Editor headless() {
+        return new Editor(EditorView.NONE);
     }
 
     public void loadShapes(Shape... shapes) {
-        allShapes.clear();
-        allShapes.add(shapes);
-        canvas.refresh();
+        document = null;
+        allShapes = new CompoundShape(shapes);
+        assignIds();
+        allShapes.setEditor(this);
+        view.refresh();
+    }
+
+    /**
+     * Loads copies of {@code shapes} into a persistent, structurally shared
+     * tree. Edits then copy only the path to the changed shape, and a
+     * snapshot is a single root pointer, so undo history grows with the
+     * edits made rather than with the size of the canvas.
+     */
+    public void loadPersistentShapes(Shape... shapes) {
+        allShapes = new CompoundShape(shapes);
+        assignIds();
+        document = new PersistentDocument(allShapes, shapesById.length);
+        int rootId = document.getRootId();
+        allShapes = new CompoundShape(document.children(rootId).toArray(new Shape[0]));
+        allShapes.setId(rootId);
+        for (int id = 1; id < shapesById.length; id++) {
+            shapesById[id] = document.view(id);
+        }
+        view.refresh();
+    }
+
+    PersistentDocument getDocument() {
+        return document;
     }
 
     public CompoundShape getShapes() {
@@ -25,42 +88,177 @@ public class Editor extends JComponent {
     }
 
     public void execute(Command c) {
-        history.push(c, new Memento(this));
+        Memento memento = null;
+        if (!(c instanceof UndoableCommand) || history.isCheckpointDue()) {
+            memento = new Memento(this);
+        }
         c.execute();
+        history.push(c, memento);
+        if (journal != null) {
+            journal.executed(c);
+        }
+    }
+
+    /**
+     * Logs every command from now on to a journal in {@code directory}, so
+     * the shapes survive a crash. If the directory already holds a journal,
+     * its shapes and history are recovered first, replacing the loaded ones.
+     */
+    public void openJournal(Path directory) throws IOException {
+        if (document != null) {
+            throw new IllegalStateException("Journaling needs mutable shapes");
+        }
+        closeJournal();
+        journal = CommandJournal.open(directory, this, history, CommandJournal.DEFAULT_CHECKPOINT_INTERVAL);
+        view.refresh();
+    }
+
+    public void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    Shape findShape(int id) {
+        Shape shape = id > 0 && id < shapesById.length ? shapesById[id] : null;
+        if (shape == null) {
+            throw new IllegalStateException("No shape with id " + id);
+        }
+        return shape;
+    }
+
+    // Numbers every shape depth-first, so ids stay the same across snapshots.
+    private void assignIds() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(null);
+        index(allShapes, shapes);
+        for (int id = 1; id < shapes.size(); id++) {
+            ((BaseShape) shapes.get(id)).setId(id);
+        }
+        shapesById = shapes.toArray(new Shape[0]);
+        nextId = shapesById.length;
+    }
+
+    private void indexShapes() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(null);
+        index(allShapes, shapes);
+        // Ids of removed shapes leave gaps, so the largest id may exceed the count
+        int maxId = 0;
+        for (Shape shape : shapes) {
+            if (shape != null) {
+                maxId = Math.max(maxId, shape.getId());
+            }
+        }
+        shapesById = new Shape[maxId + 1];
+        for (Shape shape : shapes) {
+            if (shape != null && shape.getId() > 0) {
+                shapesById[shape.getId()] = shape;
+            }
+        }
+        nextId = shapesById.length;
+    }
+
+    /**
+     * Gives a shape added to the canvas after loading, and every shape below
+     * it, the next free ids, so commands can record and find them.
+     */
+    void register(Shape shape) {
+        if (!(shape instanceof BaseShape)) {
+            return;
+        }
+        if (shape.getId() == 0) {
+            if (nextId == shapesById.length) {
+                shapesById = Arrays.copyOf(shapesById, nextId * 2);
+            }
+            ((BaseShape) shape).setId(nextId);
+            shapesById[nextId++] = shape;
+        }
+        if (shape instanceof CompoundShape) {
+            for (Shape child : ((CompoundShape) shape).getChildren()) {
+                register(child);
+            }
+        }
+    }
+
+    private static void index(Shape shape, List<Shape> shapes) {
+        shapes.add(shape);
+        if (shape instanceof CompoundShape) {
+            for (Shape child : ((CompoundShape) shape).getChildren()) {
+                index(child, shapes);
+            }
+        }
     }
 
     public void undo() {
-        if (history.undo())
-            canvas.repaint();
+        if (history.undo()) {
+            if (journal != null) {
+                journal.undone(history.getLastDelta());
+            }
+            view.repaint();
+        }
     }
 
     public void redo() {
-        if (history.redo())
-            canvas.repaint();
+        if (history.redo()) {
+            if (journal != null) {
+                journal.redone(history.getLastDelta());
+            }
+            view.repaint();
+        }
     }
 
-    public String backup() {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(this.allShapes);
-            oos.close();
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
-        } catch (IOException e) {
-            return "";
+    /**
+     * Undoes up to {@code steps} commands at once, restoring a checkpoint
+     * on the way when that is cheaper than undoing them one by one.
+     */
+    public void undo(int steps) {
+        int undone = history.undo(steps);
+        if (undone > 0) {
+            if (journal != null) {
+                journal.undone(history.getLastDelta(), undone);
+            }
+            view.repaint();
         }
     }
 
-    public void restore(String state) {
-        try {
-            byte[] data = Base64.getDecoder().decode(state);
-            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
-            this.allShapes = (CompoundShape) ois.readObject();
-            ois.close();
-        } catch (ClassNotFoundException e) {
-            System.out.print("ClassNotFoundException occurred.");
-        } catch (IOException e) {
-            System.out.print("IOException occurred.");
+    public void redo(int steps) {
+        int redone = history.redo(steps);
+        if (redone > 0) {
+            if (journal != null) {
+                journal.redone(history.getLastDelta(), redone);
+            }
+            view.repaint();
         }
     }
+
+    public byte[] backup() {
+        return codec.encode(allShapes);
+    }
+
+    /**
+     * Like {@link #backup}, but only copies the shapes into flat arrays on
+     * the calling thread and leaves packing them to a background thread.
+     */
+    CompletableFuture<byte[]> backupAsync() {
+        ShapeCodec.Capture capture = codec.capture(allShapes);
+        return CompletableFuture.supplyAsync(() -> encoderCodec.encode(capture), encoder);
+    }
+
+    // Flat copy of the shapes for a journal checkpoint, encoded elsewhere
+    ShapeCodec.Capture capture() {
+        return codec.capture(allShapes);
+    }
+
+    void restore(PersistentDocument.Node root) {
+        document.restore(root);
+        allShapes.childrenChanged();
+    }
+
+    public void restore(byte[] state) {
+        this.allShapes = codec.decode(state);
+        indexShapes();
+        allShapes.setEditor(this);
+    }
 }
@@ -0,0 +1,183 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scalability suite for a {@link Editor#headless} editor on synthetic
+ * canvases of 1k to 1M shapes nested 1 to 10 compounds deep. Times
+ * execute, undo and redo of moves, hit tests, bounds queries after a deep
+ * shape moved, and painting everything into an offscreen image.
+ *
+ * Each measurement is the best of {@link #ROUNDS} rounds, the first of
+ * which also warms up the JIT. Pass shape counts and depths to run a
+ * subset, e.g. {@code 10000,100000 1,5}; a million shapes wants -Xmx4g.
+ */
+public class EditorBenchmark {
+    static int[] CANVAS_SHAPES = {1000, 10000, 100000, 1000000};
+    static int[] DEPTHS = {1, 2, 5, 10};
+    static int COMMANDS = 200;
+    static int QUERIES = 20000;
+    static int PAINTS = 3;
+    static int ROUNDS = 3;
+    // Largest offscreen image side; bigger canvases are clipped to it
+    static int MAX_IMAGE_SIDE = 4096;
+    // Keeps the queries from being optimized away
+    static volatile int sink;
+    private static PrintStream out = System.out;
+
+    public static void main(String[] args) {
+        int[] shapeCounts = args.length > 0 ? parse(args[0]) : CANVAS_SHAPES;
+        int[] depths = args.length > 1 ? parse(args[1]) : DEPTHS;
+        // History logs every undo and redo; keep that out of the table
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        out.printf("%9s %6s %11s %11s %11s %11s %11s %11s%n", "shapes", "depth",
+                "execute", "undo", "redo", "getChildAt", "bounds", "paint");
+        for (int shapes : shapeCounts) {
+            for (int depth : depths) {
+                run(shapes, depth);
+            }
+        }
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static void run(int shapes, int depth) {
+        List<Shape> leaves = new ArrayList<>(shapes);
+        Shape[] top = syntheticCanvas(shapes, depth, 42, leaves);
+        Editor editor = Editor.headless();
+        editor.loadShapes(top);
+        CompoundShape root = editor.getShapes();
+        int side = side(shapes);
+        int imageSide = Math.min(side, MAX_IMAGE_SIDE);
+        BufferedImage image = new BufferedImage(imageSide, imageSide, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+
+        long execute = Long.MAX_VALUE, undo = Long.MAX_VALUE, redo = Long.MAX_VALUE;
+        long hit = Long.MAX_VALUE, bounds = Long.MAX_VALUE, paint = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Random random = new Random(round);
+            root.unSelect();
+            root.getChildren().get(random.nextInt(root.getChildren().size())).select();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < COMMANDS; i++) {
+                MoveCommand move = new MoveCommand(editor);
+                move.start(0, 0);
+                move.stop(random.nextInt(21) - 10, random.nextInt(21) - 10);
+                editor.execute(move);
+            }
+            execute = Math.min(execute, (System.nanoTime() - start) / COMMANDS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < COMMANDS; i++) {
+                editor.undo();
+            }
+            undo = Math.min(undo, (System.nanoTime() - start) / COMMANDS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < COMMANDS; i++) {
+                editor.redo();
+            }
+            redo = Math.min(redo, (System.nanoTime() - start) / COMMANDS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                sink += root.getChildAt(random.nextInt(side), random.nextInt(side)) != null ? 1 : 0;
+            }
+            hit = Math.min(hit, (System.nanoTime() - start) / QUERIES);
+
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                leaves.get(random.nextInt(shapes)).moveBy(random.nextInt(3) - 1, random.nextInt(3) - 1);
+                sink += root.getWidth() + root.getHeight();
+            }
+            bounds = Math.min(bounds, (System.nanoTime() - start) / QUERIES);
+
+            start = System.nanoTime();
+            for (int i = 0; i < PAINTS; i++) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, imageSide, imageSide);
+                root.paint(graphics);
+            }
+            paint = Math.min(paint, (System.nanoTime() - start) / PAINTS);
+        }
+        graphics.dispose();
+        out.printf("%9d %6d %9.1fus %9.1fus %9.1fus %9.2fus %9.2fus %9.1fms%n", shapes, depth,
+                execute / 1e3, undo / 1e3, redo / 1e3, hit / 1e3, bounds / 1e3, paint / 1e6);
+    }
+
+    private static int side(int shapes) {
+        return (int) Math.sqrt(shapes) * 40;
+    }
+
+    /**
+     * {@code shapes} leaves spread over a square at constant density and
+     * grouped into compounds {@code depth} levels deep, counting the
+     * canvas itself, so depth 1 is flat. Leaves are laid out along a
+     * Z-order curve, so every compound covers a compact patch of the
+     * canvas. Returns the top-level shapes and adds the leaves to
+     * {@code leaves}.
+     */
+    static Shape[] syntheticCanvas(int shapes, int depth, long seed, List<Shape> leaves) {
+        Random random = new Random(seed);
+        int cells = Integer.highestOneBit(Math.max(1, shapes - 1)) << 1;
+        // Side of the smallest power-of-two grid with room for every leaf
+        int grid = 1 << ((Integer.numberOfTrailingZeros(cells) + 1) / 2);
+        int spacing = Math.max(1, side(shapes) / grid);
+        List<Shape> level = new ArrayList<>(shapes);
+        for (int i = 0; i < shapes; i++) {
+            int x = deinterleave(i) * spacing + random.nextInt(spacing);
+            int y = deinterleave(i >>> 1) * spacing + random.nextInt(spacing);
+            Color color = new Color(random.nextInt(0x1000000));
+            Shape leaf;
+            switch (random.nextInt(4)) {
+                case 0:
+                    leaf = new Circle(x, y, 5 + random.nextInt(20), color);
+                    break;
+                case 1:
+                    leaf = new Dot(x, y, color);
+                    break;
+                case 2:
+                    leaf = new Oval(x, y, 5 + random.nextInt(40), 5 + random.nextInt(30), color);
+                    break;
+                default:
+                    leaf = new Rectangle(x, y, 5 + random.nextInt(40), 5 + random.nextInt(40), color);
+            }
+            leaves.add(leaf);
+            level.add(leaf);
+        }
+        int fanOut = Math.max(2, (int) Math.ceil(Math.pow(shapes, 1.0 / depth)));
+        for (int d = 1; d < depth; d++) {
+            List<Shape> parents = new ArrayList<>(level.size() / fanOut + 1);
+            for (int from = 0; from < level.size(); from += fanOut) {
+                List<Shape> group = level.subList(from, Math.min(level.size(), from + fanOut));
+                parents.add(new CompoundShape(group.toArray(new Shape[0])));
+            }
+            level = parents;
+        }
+        return level.toArray(new Shape[0]);
+    }
+
+    // Every other bit of a Z-order index, packed together
+    private static int deinterleave(int z) {
+        z &= 0x55555555;
+        z = (z | (z >>> 1)) & 0x33333333;
+        z = (z | (z >>> 2)) & 0x0F0F0F0F;
+        z = (z | (z >>> 4)) & 0x00FF00FF;
+        z = (z | (z >>> 8)) & 0x0000FFFF;
+        return z;
+    }
+}
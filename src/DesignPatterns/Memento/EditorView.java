@@ -0,0 +1,28 @@
+package DesignPatterns.Memento;
+
+/**
+ * The window an {@link Editor} keeps up to date. The editor itself holds
+ * only the document and its history, so it runs without one when there is
+ * no display.
+ */
+interface EditorView {
+    EditorView NONE = new EditorView() {
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void repaint() {
+        }
+    };
+
+    /**
+     * The shapes were replaced; resize to fit them.
+     */
+    void refresh();
+
+    /**
+     * The shapes changed in place.
+     */
+    void repaint();
+}
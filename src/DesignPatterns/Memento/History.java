@@ -1,18 +1,37 @@
 package DesignPatterns.Memento;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
 public class History {
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 50;
+    private static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+
     private List<Pair> history = new ArrayList<Pair>();
     private int virtualSize = 0;
+    private final int checkpointInterval;
+    private int sinceCheckpoint;
+    private final long byteBudget;
+    private MementoJournal journal;
+    private long residentBytes;
+    private long spilledBytes;
+    // Entries before this index have no resident memento left to spill
+    private int spillCursor;
+    // Mementos still being encoded, oldest first; their bytes are not counted yet
+    private final ArrayDeque<Memento> encoding = new ArrayDeque<>();
+    private Delta lastDelta;
+    // Set when mementos are kept as diffs against each other instead of whole
+    private final SnapshotChain chain;
 
     private class Pair {
         Command command;
         Memento memento;
-        Pair(Command c, Memento m) {
+        Delta delta;
+        Pair(Command c, Memento m, Delta d) {
             command = c;
             memento = m;
+            delta = d;
         }
 
         private Command getCommand() {
@@ -22,14 +41,153 @@ public class History {
         private Memento getMemento() {
             return memento;
         }
+
+        private Delta getDelta() {
+            return delta;
+        }
+    }
+
+    public History() {
+        this(DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Commands that record a delta are undone from it; a full snapshot is
+     * only taken every {@code checkpointInterval} commands as a checkpoint,
+     * which {@link #undo(int)} and {@link #redo(int)} jump to.
+     */
+    public History(int checkpointInterval) {
+        this(checkpointInterval, DEFAULT_BYTE_BUDGET);
     }
 
+    /**
+     * History that keeps at most {@code byteBudget} bytes of mementos on the
+     * heap. Older mementos spill to a memory-mapped journal file and are
+     * read back transparently when undo reaches them.
+     */
+    public History(int checkpointInterval, long byteBudget) {
+        this(checkpointInterval, byteBudget, null);
+    }
+
+    /**
+     * A history that keeps encoded mementos in {@code chain}, as diffs
+     * against the memento before them, and decodes them only when undo or
+     * redo reaches them. Over the byte budget, the oldest chain entries
+     * spill to the journal like whole mementos do.
+     */
+    History(SnapshotChain chain) {
+        this(DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_BYTE_BUDGET, chain);
+    }
+
+    History(int checkpointInterval, long byteBudget, SnapshotChain chain) {
+        this.checkpointInterval = checkpointInterval;
+        this.byteBudget = byteBudget;
+        this.chain = chain;
+    }
+
+    /**
+     * Whether the next command should be pushed with a full snapshot.
+     */
+    public boolean isCheckpointDue() {
+        return sinceCheckpoint + 1 >= checkpointInterval;
+    }
+
+    /**
+     * Records an executed command. {@code m} is the state before it ran, and
+     * may only be null for {@link UndoableCommand}s.
+     */
     public void push(Command c, Memento m) {
-        if (virtualSize != history.size() && virtualSize > 0) {
-            history = history.subList(0, virtualSize - 1);
+        Delta delta = c instanceof UndoableCommand ? ((UndoableCommand) c).getDelta() : null;
+        if (delta == null && m == null) {
+            throw new IllegalArgumentException("Command " + c.getName() + " needs a memento to be undone");
+        }
+        if (virtualSize != history.size()) {
+            discard(virtualSize);
         }
-        history.add(new Pair(c, m));
+        history.add(new Pair(c, m, delta));
         virtualSize = history.size();
+        sinceCheckpoint = m != null ? 0 : sinceCheckpoint + 1;
+        if (m != null) {
+            encoding.add(m);
+        }
+        settle();
+    }
+
+    // Counts the mementos whose encoding has finished, in push order.
+    private void settle() {
+        while (!encoding.isEmpty() && encoding.peek().isReady()) {
+            Memento memento = encoding.poll();
+            if (chain != null) {
+                memento.compress(chain);
+            }
+            residentBytes += memento.size();
+        }
+        spillOverBudget();
+    }
+
+    /**
+     * Bytes of mementos held on the heap. Mementos still being encoded in
+     * the background are counted from the next push after they finish.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Bytes of mementos spilled to the journal file.
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    // Drops the redo tail starting at entry `from`.
+    private void discard(int from) {
+        long journalEnd = Long.MAX_VALUE;
+        int chainEnd = Integer.MAX_VALUE;
+        for (Pair pair : history.subList(from, history.size())) {
+            Memento memento = pair.getMemento();
+            if (memento == null || encoding.remove(memento)) {
+                continue;
+            }
+            if (memento.isCompressed()) {
+                chainEnd = Math.min(chainEnd, memento.getIndex());
+            }
+            if (memento.isSpilled()) {
+                spilledBytes -= memento.size();
+                journalEnd = Math.min(journalEnd, memento.getOffset());
+            } else {
+                residentBytes -= memento.size();
+            }
+        }
+        // Spills happen oldest first, so the discarded ones sit at the end of the journal.
+        if (journal != null && journalEnd != Long.MAX_VALUE) {
+            journal.truncate(journalEnd);
+        }
+        // Likewise the newest entries of the chain
+        if (chainEnd != Integer.MAX_VALUE) {
+            chain.truncate(chainEnd);
+        }
+        history = new ArrayList<>(history.subList(0, from));
+        spillCursor = Math.min(spillCursor, from);
+    }
+
+    private void spillOverBudget() {
+        while (residentBytes > byteBudget && spillCursor < history.size()) {
+            Memento memento = history.get(spillCursor).getMemento();
+            if (memento != null && encoding.contains(memento)) {
+                break;
+            }
+            spillCursor++;
+            if (memento == null || memento.isSpilled()) {
+                continue;
+            }
+            if (journal == null) {
+                journal = MementoJournal.createTemp();
+            }
+            memento.spill(journal);
+            residentBytes -= memento.size();
+            spilledBytes += memento.size();
+        }
     }
 
     public boolean undo() {
@@ -38,7 +196,12 @@ public class History {
             return false;
         }
         System.out.println("Undoing: " + pair.getCommand().getName());
-        pair.getMemento().restore();
+        lastDelta = pair.getDelta();
+        if (pair.getDelta() != null) {
+            pair.getDelta().undo();
+        } else {
+            pair.getMemento().restore();
+        }
         return true;
     }
 
@@ -48,11 +211,112 @@ public class History {
             return false;
         }
         System.out.println("Redoing: " + pair.getCommand().getName());
-        pair.getMemento().restore();
-        pair.getCommand().execute();
+        lastDelta = pair.getDelta();
+        if (pair.getDelta() != null) {
+            pair.getDelta().redo();
+        } else {
+            pair.getMemento().restore();
+            pair.getCommand().execute();
+        }
         return true;
     }
 
+    /**
+     * Forgets every command, as when the shapes are replaced wholesale.
+     */
+    void clear() {
+        discard(0);
+        virtualSize = 0;
+        sinceCheckpoint = 0;
+        lastDelta = null;
+    }
+
+    /**
+     * Commands that can currently be undone.
+     */
+    int getUndoCount() {
+        return virtualSize;
+    }
+
+    int getRedoCount() {
+        return history.size() - virtualSize;
+    }
+
+    /**
+     * Undoes up to {@code steps} commands and returns how many were undone.
+     * If a checkpoint lies between here and the target, at least a
+     * checkpoint interval back, it is restored in place of undoing the
+     * commands after it one by one, so no more than an interval's worth of
+     * deltas is replayed however far the jump.
+     */
+    public int undo(int steps) {
+        int target = Math.max(0, virtualSize - steps);
+        int from = virtualSize;
+        int checkpoint = -1;
+        for (int i = target; i <= from - checkpointInterval; i++) {
+            if (history.get(i).getMemento() != null) {
+                checkpoint = i;
+                break;
+            }
+        }
+        if (checkpoint >= 0) {
+            Pair pair = history.get(checkpoint);
+            System.out.println("Undoing to: " + pair.getCommand().getName());
+            pair.getMemento().restore();
+            virtualSize = checkpoint;
+        }
+        boolean restored = checkpoint >= 0;
+        while (virtualSize > target) {
+            undo();
+            restored |= lastDelta == null;
+        }
+        if (restored) {
+            lastDelta = null;
+        }
+        return from - virtualSize;
+    }
+
+    /**
+     * Redoes up to {@code steps} commands and returns how many were redone,
+     * starting from the last checkpoint before the target when that skips at
+     * least a checkpoint interval of deltas.
+     */
+    public int redo(int steps) {
+        int target = Math.min(history.size(), virtualSize + Math.max(0, steps));
+        int from = virtualSize;
+        int checkpoint = -1;
+        for (int i = target - 1; i >= from + checkpointInterval; i--) {
+            if (history.get(i).getMemento() != null) {
+                checkpoint = i;
+                break;
+            }
+        }
+        if (checkpoint >= 0) {
+            Pair pair = history.get(checkpoint);
+            System.out.println("Redoing to: " + pair.getCommand().getName());
+            pair.getMemento().restore();
+            virtualSize = checkpoint;
+        }
+        boolean restored = checkpoint >= 0;
+        while (virtualSize < target) {
+            redo();
+            restored |= lastDelta == null;
+        }
+        if (restored) {
+            lastDelta = null;
+        }
+        return virtualSize - from;
+    }
+
+    /**
+     * The delta the last undo or redo went through, or null if it had to
+     * restore a memento instead. After a jump of several steps, null if any
+     * of them did.
+     */
+    Delta getLastDelta() {
+        return lastDelta;
+    }
+
     private Pair getUndo() {
         if (virtualSize == 0) {
             return null;
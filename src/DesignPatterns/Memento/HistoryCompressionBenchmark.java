@@ -0,0 +1,86 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Records a snapshot after every step of a {@link #STEPS}-step editing
+ * session and stores them in a {@link SnapshotChain}, as diffs alone and
+ * deflated. Reports the compression ratio against storing every snapshot
+ * whole, the cost of appending, and restore latency walking back through
+ * the session the way repeated undo does, and reading snapshots in random
+ * order. Walking back, the read that lands in a new keyframe group decodes
+ * the whole group, which is what the 99th percentile shows.
+ */
+public class HistoryCompressionBenchmark {
+    static int[] CANVAS_SHAPES = {1000, 10000};
+    static int STEPS = 10000;
+    static int RANDOM_READS = 2000;
+    // Keeps the reads from being optimized away
+    static volatile int sink;
+
+    public static void main(String[] args) {
+        System.out.printf("%8s %8s %12s %12s %8s %10s %10s %10s %10s%n", "shapes", "deflate",
+                "raw bytes", "stored", "ratio", "append", "undo avg", "undo p99", "random");
+        for (int shapes : CANVAS_SHAPES) {
+            byte[][] session = session(shapes, 42);
+            for (boolean deflate : new boolean[] {false, true}) {
+                SnapshotChain chain = new SnapshotChain(deflate);
+                long start = System.nanoTime();
+                for (byte[] snapshot : session) {
+                    chain.append(snapshot);
+                }
+                long append = (System.nanoTime() - start) / STEPS;
+
+                long[] undo = new long[STEPS];
+                long total = 0;
+                for (int i = STEPS - 1; i >= 0; i--) {
+                    start = System.nanoTime();
+                    byte[] snapshot = chain.read(i);
+                    undo[i] = System.nanoTime() - start;
+                    total += undo[i];
+                    sink += snapshot.length;
+                }
+                Arrays.sort(undo);
+
+                Random random = new Random(7);
+                start = System.nanoTime();
+                for (int i = 0; i < RANDOM_READS; i++) {
+                    sink += chain.read(random.nextInt(STEPS)).length;
+                }
+                long randomRead = (System.nanoTime() - start) / RANDOM_READS;
+
+                System.out.printf("%8d %8s %12d %12d %7.1fx %8.1fus %8.1fus %8.1fus %8.1fus%n", shapes, deflate,
+                        chain.getRawBytes(), chain.getStoredBytes(), chain.getCompressionRatio(),
+                        append / 1e3, total / 1e3 / STEPS, undo[STEPS * 99 / 100] / 1e3, randomRead / 1e3);
+            }
+        }
+    }
+
+    /**
+     * Snapshots of a synthetic canvas after each of {@link #STEPS} edits:
+     * mostly small moves of one to three shapes, with some recolors.
+     */
+    static byte[][] session(int shapes, long seed) {
+        CompoundShape canvas = SnapshotBenchmark.syntheticCanvas(shapes, seed);
+        List<Shape> children = canvas.getChildren();
+        ShapeCodec codec = new ShapeCodec();
+        Random random = new Random(seed);
+        byte[][] session = new byte[STEPS][];
+        for (int step = 0; step < STEPS; step++) {
+            if (random.nextInt(5) == 0) {
+                children.get(random.nextInt(children.size())).setColor(new Color(random.nextInt(0x1000000)));
+            } else {
+                int dx = random.nextInt(41) - 20;
+                int dy = random.nextInt(41) - 20;
+                for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                    children.get(random.nextInt(children.size())).moveBy(dx, dy);
+                }
+            }
+            session[step] = codec.encode(canvas);
+        }
+        return session;
+    }
+}
@@ -0,0 +1,119 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times {@link CompoundShape#getChildAt} and marquee queries through the
+ * spatial index against a linear scan of the children, on canvases that
+ * grow in area with the number of shapes, the way a real drawing does.
+ */
+public class HitTestBenchmark {
+    static int[] CANVAS_SHAPES = {1000, 10000, 100000};
+    static int QUERIES = 20000;
+    static int MARQUEE = 200;
+    static int ROUNDS = 3;
+    // Keeps the queries from being optimized away
+    static volatile int sink;
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %12s %12s %14s %14s %14s%n", "shapes",
+                "linear hit", "index hit", "hit after move", "linear marquee", "index marquee");
+        for (int shapes : CANVAS_SHAPES) {
+            CompoundShape canvas = localCanvas(shapes, 42);
+            List<Shape> children = canvas.getChildren();
+            int side = side(shapes);
+
+            long linearHit = Long.MAX_VALUE, indexHit = Long.MAX_VALUE, movedHit = Long.MAX_VALUE;
+            long linearMarquee = Long.MAX_VALUE, indexMarquee = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                Random random = new Random(round);
+                long start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    sink += linearChildAt(children, random.nextInt(side), random.nextInt(side)) != null ? 1 : 0;
+                }
+                linearHit = Math.min(linearHit, (System.nanoTime() - start) / QUERIES);
+
+                random = new Random(round);
+                canvas.getChildAt(0, 0);
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    sink += canvas.getChildAt(random.nextInt(side), random.nextInt(side)) != null ? 1 : 0;
+                }
+                indexHit = Math.min(indexHit, (System.nanoTime() - start) / QUERIES);
+
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    children.get(random.nextInt(shapes / 2)).moveBy(random.nextInt(21) - 10, random.nextInt(21) - 10);
+                    sink += canvas.getChildAt(random.nextInt(side), random.nextInt(side)) != null ? 1 : 0;
+                }
+                movedHit = Math.min(movedHit, (System.nanoTime() - start) / QUERIES);
+
+                int marquees = QUERIES / 100;
+                start = System.nanoTime();
+                for (int i = 0; i < marquees; i++) {
+                    sink += linearWithin(children, random.nextInt(side), random.nextInt(side), MARQUEE, MARQUEE);
+                }
+                linearMarquee = Math.min(linearMarquee, (System.nanoTime() - start) / marquees);
+
+                start = System.nanoTime();
+                for (int i = 0; i < marquees; i++) {
+                    sink += canvas.getChildrenWithin(random.nextInt(side), random.nextInt(side), MARQUEE, MARQUEE).size();
+                }
+                indexMarquee = Math.min(indexMarquee, (System.nanoTime() - start) / marquees);
+            }
+            System.out.printf("%10d %10dns %10dns %12dns %12dns %12dns%n", shapes,
+                    linearHit, indexHit, movedHit, linearMarquee, indexMarquee);
+        }
+    }
+
+    private static int side(int shapes) {
+        return (int) Math.sqrt(shapes) * 40;
+    }
+
+    /**
+     * Shapes spread over a square sized for a constant density, with every
+     * tenth slot a compound of two shapes close to each other.
+     */
+    static CompoundShape localCanvas(int shapes, long seed) {
+        Random random = new Random(seed);
+        int side = side(shapes);
+        CompoundShape canvas = new CompoundShape();
+        int count = 0;
+        while (count < shapes) {
+            int x = random.nextInt(side);
+            int y = random.nextInt(side);
+            if (count % 10 == 9) {
+                canvas.add(new CompoundShape(new Circle(x, y, 5 + random.nextInt(20), Color.BLUE),
+                        new Dot(x + random.nextInt(40), y + random.nextInt(40), Color.BLUE)));
+                count += 3;
+            } else {
+                canvas.add(new Rectangle(x, y, 5 + random.nextInt(40), 5 + random.nextInt(40), Color.RED));
+                count++;
+            }
+        }
+        return canvas;
+    }
+
+    // What getChildAt does without an index
+    private static Shape linearChildAt(List<Shape> children, int x, int y) {
+        for (Shape child : children) {
+            if (child.isInsideBounds(x, y)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static int linearWithin(List<Shape> children, int x, int y, int width, int height) {
+        int found = 0;
+        for (Shape child : children) {
+            if (child.getX() >= x && child.getX() + child.getWidth() <= x + width &&
+                    child.getY() >= y && child.getY() + child.getHeight() <= y + height) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
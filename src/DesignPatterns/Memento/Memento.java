@@ -1,15 +1,120 @@
 package DesignPatterns.Memento;
 
+import java.util.concurrent.CompletableFuture;
+
 public class Memento {
-    private String backup;
+    private byte[] backup;
+    // Until the background encode finishes; the EDT only took a flat copy
+    private CompletableFuture<byte[]> encoding;
+    // Set instead of backup when the editor runs on a persistent document
+    private PersistentDocument.Node root;
     private Editor editor;
+    private int size;
+    // Where the backup lives once spilled to disk
+    private MementoJournal journal;
+    private long offset;
+    // Where the backup lives once history compressed it
+    private SnapshotChain chain;
+    private int index;
 
     public Memento(Editor editor) {
         this.editor = editor;
-        this.backup = editor.backup();
+        PersistentDocument document = editor.getDocument();
+        if (document != null) {
+            // Later edits copy their paths instead of touching this tree, so nothing is copied here
+            this.root = document.snapshot();
+        } else {
+            this.encoding = editor.backupAsync();
+        }
     }
 
+    /**
+     * Restores the snapshot, first waiting for its encoding if that is still
+     * running.
+     */
     public void restore() {
-        editor.restore(backup);
+        if (root != null) {
+            editor.restore(root);
+            return;
+        }
+        awaitEncoding();
+        if (backup != null) {
+            editor.restore(backup);
+        } else if (chain != null) {
+            editor.restore(chain.read(index));
+        } else {
+            editor.restore(journal.read(offset, size));
+        }
+    }
+
+    /**
+     * Whether the snapshot bytes exist yet, so {@link #size} will not block.
+     */
+    boolean isReady() {
+        return encoding == null || encoding.isDone();
+    }
+
+    private void awaitEncoding() {
+        if (encoding != null) {
+            backup = encoding.join();
+            size = backup.length;
+            encoding = null;
+        }
+    }
+
+    int size() {
+        awaitEncoding();
+        return size;
+    }
+
+    boolean isSpilled() {
+        return journal != null;
+    }
+
+    boolean isCompressed() {
+        return chain != null;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Moves the backup, or its entry in the chain if compressed, to
+     * {@code journal}; {@link #restore} pages it back in.
+     */
+    void spill(MementoJournal journal) {
+        awaitEncoding();
+        if (chain != null) {
+            // Its entry in the chain goes instead; the chain pages it back in
+            this.offset = chain.spill(index, journal);
+            this.journal = journal;
+            return;
+        }
+        if (backup == null) {
+            return;
+        }
+        this.offset = journal.append(backup);
+        this.journal = journal;
+        this.backup = null;
+    }
+
+    /**
+     * Moves the backup into {@code chain}, after which {@link #size} is what
+     * it takes up there and {@link #restore} decodes it on demand.
+     */
+    void compress(SnapshotChain chain) {
+        awaitEncoding();
+        if (backup == null) {
+            return;
+        }
+        this.index = chain.append(backup);
+        this.chain = chain;
+        this.size = chain.storedSize(index);
+        this.backup = null;
     }
-}
\ No newline at end of file
+}
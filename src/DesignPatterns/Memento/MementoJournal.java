@@ -0,0 +1,101 @@
+package DesignPatterns.Memento;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped file that snapshots spill to when History is
+ * over its memory budget. The file grows in mapped chunks and is deleted
+ * when closed.
+ */
+class MementoJournal implements Closeable {
+    private static final int CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private long end;
+
+    MementoJournal(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static MementoJournal createTemp() {
+        try {
+            Path file = Files.createTempFile("memento", ".journal");
+            file.toFile().deleteOnExit();
+            return new MementoJournal(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends {@code data} and returns the offset to read it back from.
+     */
+    long append(byte[] data) {
+        long offset = end;
+        int written = 0;
+        while (written < data.length) {
+            MappedByteBuffer chunk = chunk((int) (end / CHUNK_BYTES));
+            int position = (int) (end % CHUNK_BYTES);
+            int n = Math.min(data.length - written, CHUNK_BYTES - position);
+            chunk.put(position, data, written, n);
+            written += n;
+            end += n;
+        }
+        return offset;
+    }
+
+    byte[] read(long offset, int length) {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            long at = offset + read;
+            int position = (int) (at % CHUNK_BYTES);
+            int n = Math.min(length - read, CHUNK_BYTES - position);
+            chunk((int) (at / CHUNK_BYTES)).get(position, data, read, n);
+            read += n;
+        }
+        return data;
+    }
+
+    /**
+     * Forgets everything from {@code offset} on, so its space is reused.
+     */
+    void truncate(long offset) {
+        end = Math.min(end, offset);
+    }
+
+    long size() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private MappedByteBuffer chunk(int index) {
+        try {
+            while (chunks.size() <= index) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK_BYTES, CHUNK_BYTES));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunks.get(index);
+    }
+}
@@ -1,6 +1,8 @@
 package DesignPatterns.Memento;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class MomentoMain {
     public static void main(String[] args) {
@@ -26,5 +28,11 @@ public class MomentoMain {
                         new Dot(590, 475, Color.YELLOW)
                 )
         );
+        // Picks up where the last session left off, crashed or not
+        try {
+            editor.openJournal(Path.of(System.getProperty("java.io.tmpdir"), "memento-editor"));
+        } catch (IOException e) {
+            System.err.println("Journal disabled: " + e.getMessage());
+        }
     }
 }
@@ -1,9 +1,14 @@
 package DesignPatterns.Memento;
 
-public class MoveCommand implements Command {
+import java.util.List;
+
+public class MoveCommand implements UndoableCommand {
     private Editor editor;
     private int startX, startY;
     private int endX, endY;
+    private Delta delta;
+    // Live view of the selection, which holds still for the length of a drag
+    private List<Shape> dragged = List.of();
 
     public MoveCommand(Editor editor) {
         this.editor = editor;
@@ -17,29 +22,47 @@ public class MoveCommand implements Command {
     public void start(int x, int y) {
         startX = x;
         startY = y;
-        for (Shape child : editor.getShapes().getSelected()) {
-            child.drag();
+        dragged = editor.getShapes().getSelection();
+        for (int i = 0; i < dragged.size(); i++) {
+            dragged.get(i).drag();
         }
     }
 
     public void move(int x, int y) {
-        for (Shape child : editor.getShapes().getSelected()) {
-            child.moveTo(x - startX, y - startY);
+        for (int i = 0; i < dragged.size(); i++) {
+            dragged.get(i).moveTo(x - startX, y - startY);
         }
     }
 
     public void stop(int x, int y) {
         endX = x;
         endY = y;
-        for (Shape child : editor.getShapes().getSelected()) {
-            child.drop();
+        for (int i = 0; i < dragged.size(); i++) {
+            dragged.get(i).drop();
         }
     }
 
     @Override
     public void execute() {
-        for (Shape child : editor.getShapes().getSelected()) {
+        List<Shape> selected = editor.getShapes().getSelection();
+        int[] ids = new int[selected.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Shape child = selected.get(i);
+            ids[i] = child.getId();
             child.moveBy(endX - startX, endY - startY);
         }
+        delta = new MoveDelta(editor, ids, endX - startX, endY - startY);
+    }
+
+    /**
+     * The shapes being dragged, between {@link #start} and {@link #stop}.
+     */
+    List<Shape> getDragged() {
+        return dragged;
+    }
+
+    @Override
+    public Delta getDelta() {
+        return delta;
     }
 }
@@ -0,0 +1,40 @@
+package DesignPatterns.Memento;
+
+class MoveDelta implements Delta {
+    private final Editor editor;
+    private final int[] ids;
+    private final int dx, dy;
+
+    MoveDelta(Editor editor, int[] ids, int dx, int dy) {
+        this.editor = editor;
+        this.ids = ids;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    int[] getIds() {
+        return ids;
+    }
+
+    int getDx() {
+        return dx;
+    }
+
+    int getDy() {
+        return dy;
+    }
+
+    @Override
+    public void undo() {
+        for (int id : ids) {
+            editor.findShape(id).moveBy(-dx, -dy);
+        }
+    }
+
+    @Override
+    public void redo() {
+        for (int id : ids) {
+            editor.findShape(id).moveBy(dx, dy);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable shape tree for the editor. An edit copies only the nodes on the
+ * path from the root to the changed shape and shares everything else, so a
+ * snapshot is just the current root.
+ *
+ * Shapes are addressed by the ids {@link Editor} assigns; {@link #view} hands
+ * out a {@link Shape} for each id that reads and writes through to the
+ * current root. Selection is editing state rather than document state and
+ * is kept outside the tree.
+ */
+class PersistentDocument {
+    static final byte COMPOUND = 0, CIRCLE = 1, DOT = 2, OVAL = 3, RECTANGLE = 4;
+    // Invisible fan-out node, so a path copy never clones a long child array
+    static final byte GROUP = 5;
+    private static final int BRANCH = 32;
+
+    static final class Node {
+        final int id;
+        final byte kind;
+        // Leaves: position. Compounds: offset of everything below, so a move copies one path.
+        final int x, y;
+        final int width, height;
+        final Color color;
+        // Colors are resolved along the path: a node's color applies unless an
+        // ancestor was colored later. Recoloring a compound is then one path copy too.
+        final long stamp;
+        final Node[] children;
+        // Bounds in the parent's coordinates
+        final int minX, minY, maxX, maxY;
+
+        Node(int id, byte kind, int x, int y, int width, int height, Color color, long stamp, Node[] children) {
+            this.id = id;
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.color = color;
+            this.stamp = stamp;
+            this.children = children;
+            if (children == null) {
+                minX = x;
+                minY = y;
+                maxX = x + width;
+                maxY = y + height;
+            } else if (children.length == 0) {
+                minX = minY = maxX = maxY = 0;
+            } else {
+                int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+                int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+                for (Node child : children) {
+                    x0 = Math.min(x0, child.minX);
+                    y0 = Math.min(y0, child.minY);
+                    x1 = Math.max(x1, child.maxX);
+                    y1 = Math.max(y1, child.maxY);
+                }
+                minX = x0 + x;
+                minY = y0 + y;
+                maxX = x1 + x;
+                maxY = y1 + y;
+            }
+        }
+
+        Node movedBy(int dx, int dy) {
+            return new Node(id, kind, x + dx, y + dy, width, height, color, stamp, children);
+        }
+
+        Node recolored(Color color, long stamp) {
+            return new Node(id, kind, x, y, width, height, color, stamp, children);
+        }
+
+        Node withChild(int index, Node child) {
+            Node[] copy = children.clone();
+            copy[index] = child;
+            return new Node(id, kind, x, y, width, height, color, stamp, copy);
+        }
+    }
+
+    private Node root;
+    private long clock;
+    // Child indexes leading from the root to each id
+    private final int[][] paths;
+    // Ids are numbered depth-first, so a shape's descendants are the ids up to this one
+    private final int[] lastDescendant;
+    private final boolean[] selected;
+    private final PersistentShape[] views;
+
+    /**
+     * Copies {@code shapes}, whose ids must already be assigned, into a new
+     * document. {@code idCount} is one past the largest id.
+     */
+    PersistentDocument(CompoundShape shapes, int idCount) {
+        this.paths = new int[idCount][];
+        this.lastDescendant = new int[idCount];
+        this.selected = new boolean[idCount];
+        this.views = new PersistentShape[idCount];
+        this.root = build(shapes);
+        index(root, new int[0]);
+    }
+
+    private static Node build(Shape shape) {
+        Color color = shape.getColor();
+        if (shape instanceof CompoundShape) {
+            List<Shape> children = ((CompoundShape) shape).getChildren();
+            Node[] nodes = new Node[children.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = build(children.get(i));
+            }
+            return new Node(shape.getId(), COMPOUND, 0, 0, 0, 0, color, 0, fanOut(nodes));
+        }
+        byte kind;
+        if (shape instanceof Circle) {
+            kind = CIRCLE;
+        } else if (shape instanceof Dot) {
+            kind = DOT;
+        } else if (shape instanceof Oval) {
+            kind = OVAL;
+        } else if (shape instanceof Rectangle) {
+            kind = RECTANGLE;
+        } else {
+            throw new IllegalArgumentException("Unsupported shape: " + shape.getClass().getName());
+        }
+        return new Node(shape.getId(), kind, shape.getX(), shape.getY(),
+                shape.getWidth(), shape.getHeight(), color, 0, null);
+    }
+
+    // Splits long child lists into a tree of groups of at most BRANCH nodes.
+    private static Node[] fanOut(Node[] nodes) {
+        while (nodes.length > BRANCH) {
+            Node[] groups = new Node[(nodes.length + BRANCH - 1) / BRANCH];
+            for (int g = 0; g < groups.length; g++) {
+                int from = g * BRANCH;
+                Node[] members = new Node[Math.min(BRANCH, nodes.length - from)];
+                System.arraycopy(nodes, from, members, 0, members.length);
+                groups[g] = new Node(0, GROUP, 0, 0, 0, 0, null, -1, members);
+            }
+            nodes = groups;
+        }
+        return nodes;
+    }
+
+    private int index(Node node, int[] path) {
+        int last = node.id;
+        if (node.kind != GROUP) {
+            paths[node.id] = path;
+        }
+        if (node.children != null) {
+            for (int i = 0; i < node.children.length; i++) {
+                int[] childPath = new int[path.length + 1];
+                System.arraycopy(path, 0, childPath, 0, path.length);
+                childPath[path.length] = i;
+                last = Math.max(last, index(node.children[i], childPath));
+            }
+        }
+        if (node.kind != GROUP) {
+            lastDescendant[node.id] = last;
+        }
+        return last;
+    }
+
+    /**
+     * The current root. Holding on to it is a complete snapshot.
+     */
+    Node snapshot() {
+        return root;
+    }
+
+    void restore(Node snapshot) {
+        this.root = snapshot;
+    }
+
+    int getRootId() {
+        return root.id;
+    }
+
+    PersistentShape view(int id) {
+        if (views[id] == null) {
+            views[id] = new PersistentShape(this, id);
+        }
+        return views[id];
+    }
+
+    /**
+     * Views of the shapes directly inside compound {@code id}.
+     */
+    List<Shape> children(int id) {
+        List<Shape> children = new ArrayList<>();
+        Node node = node(id);
+        if (node.children != null) {
+            collectChildren(node.children, children);
+        }
+        return children;
+    }
+
+    private void collectChildren(Node[] nodes, List<Shape> children) {
+        for (Node child : nodes) {
+            if (child.kind == GROUP) {
+                collectChildren(child.children, children);
+            } else {
+                children.add(view(child.id));
+            }
+        }
+    }
+
+    Node node(int id) {
+        Node node = root;
+        for (int index : paths[id]) {
+            node = node.children[index];
+        }
+        return node;
+    }
+
+    // Sum of the compound offsets above `id`: what its bounds are relative to.
+    private int offsetX(int id) {
+        int offset = 0;
+        Node node = root;
+        for (int index : paths[id]) {
+            offset += node.x;
+            node = node.children[index];
+        }
+        return offset;
+    }
+
+    private int offsetY(int id) {
+        int offset = 0;
+        Node node = root;
+        for (int index : paths[id]) {
+            offset += node.y;
+            node = node.children[index];
+        }
+        return offset;
+    }
+
+    int getX(int id) {
+        Node node = node(id);
+        return node.children != null && node.children.length == 0 ? 0 : offsetX(id) + node.minX;
+    }
+
+    int getY(int id) {
+        Node node = node(id);
+        return node.children != null && node.children.length == 0 ? 0 : offsetY(id) + node.minY;
+    }
+
+    int getWidth(int id) {
+        Node node = node(id);
+        return node.maxX - node.minX;
+    }
+
+    int getHeight(int id) {
+        Node node = node(id);
+        return node.maxY - node.minY;
+    }
+
+    void moveBy(int id, int dx, int dy) {
+        root = replace(root, paths[id], 0, node(id).movedBy(dx, dy));
+    }
+
+    Color getColor(int id) {
+        Node node = root;
+        Node winner = root;
+        for (int index : paths[id]) {
+            node = node.children[index];
+            if (node.stamp >= winner.stamp) {
+                winner = node;
+            }
+        }
+        return winner.color;
+    }
+
+    void setColor(int id, Color color) {
+        root = replace(root, paths[id], 0, node(id).recolored(color, ++clock));
+    }
+
+    private static Node replace(Node node, int[] path, int depth, Node replacement) {
+        if (depth == path.length) {
+            return replacement;
+        }
+        int index = path[depth];
+        return node.withChild(index, replace(node.children[index], path, depth + 1, replacement));
+    }
+
+    void select(int id) {
+        selected[id] = true;
+    }
+
+    /**
+     * Unselects {@code id} and, like {@link CompoundShape#unSelect}, everything inside it.
+     */
+    void unSelect(int id) {
+        for (int i = id; i <= lastDescendant[id]; i++) {
+            selected[i] = false;
+        }
+    }
+
+    boolean isSelected(int id) {
+        return selected[id];
+    }
+
+    boolean isInsideBounds(int id, int x, int y) {
+        Node node = node(id);
+        return contains(node, x - offsetX(id), y - offsetY(id));
+    }
+
+    // (x, y) is in the coordinates of the node's parent.
+    private static boolean contains(Node node, int x, int y) {
+        if (node.children == null) {
+            return x > node.minX && x < node.maxX && y > node.minY && y < node.maxY;
+        }
+        if (x < node.minX || x > node.maxX || y < node.minY || y > node.maxY) {
+            return false;
+        }
+        for (Node child : node.children) {
+            if (contains(child, x - node.x, y - node.y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void paint(int id, Graphics graphics) {
+        Node node = root;
+        Node winner = root;
+        int x = 0, y = 0;
+        for (int index : paths[id]) {
+            x += node.x;
+            y += node.y;
+            node = node.children[index];
+            if (node.stamp >= winner.stamp) {
+                winner = node;
+            }
+        }
+        paint(node, graphics, x, y, winner);
+    }
+
+    private void paint(Node node, Graphics graphics, int x, int y, Node winner) {
+        if (node.kind == GROUP) {
+            for (Node child : node.children) {
+                paint(child, graphics, x, y, winner);
+            }
+            return;
+        }
+        if (node.stamp >= winner.stamp) {
+            winner = node;
+        }
+        boolean isSelected = selected[node.id];
+        if (node.children != null) {
+            if (isSelected) {
+                BaseShape.selectionStyle(graphics);
+                graphics.drawRect(x + node.minX - 1, y + node.minY - 1,
+                        node.maxX - node.minX + 1, node.maxY - node.minY + 1);
+                BaseShape.normalStyle(graphics, winner.color);
+            }
+            for (Node child : node.children) {
+                paint(child, graphics, x + node.x, y + node.y, winner);
+            }
+            return;
+        }
+        if (isSelected) {
+            BaseShape.selectionStyle(graphics);
+        } else {
+            BaseShape.normalStyle(graphics, winner.color);
+        }
+        int left = x + node.x;
+        int top = y + node.y;
+        switch (node.kind) {
+            case CIRCLE:
+            case OVAL:
+                graphics.drawOval(left, top, node.width - 1, node.height - 1);
+                break;
+            case RECTANGLE:
+                graphics.drawRect(left, top, node.width - 1, node.height - 1);
+                break;
+            case DOT:
+                graphics.fillRect(left - 1, top - 1, node.width, node.height);
+                break;
+            default:
+                throw new IllegalStateException("Unknown shape kind " + node.kind);
+        }
+    }
+}
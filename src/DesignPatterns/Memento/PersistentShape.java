@@ -0,0 +1,128 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * A shape in a {@link PersistentDocument}. It holds no state of its own
+ * beyond a drag anchor; every call goes to the document's current root.
+ */
+class PersistentShape implements Shape {
+    private static final long serialVersionUID = 1L;
+
+    private final transient PersistentDocument document;
+    private final int id;
+    private int dx, dy;
+    private CompoundShape parent;
+
+    PersistentShape(PersistentDocument document, int id) {
+        this.document = document;
+        this.id = id;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public int getX() {
+        return document.getX(id);
+    }
+
+    @Override
+    public int getY() {
+        return document.getY(id);
+    }
+
+    @Override
+    public int getWidth() {
+        return document.getWidth(id);
+    }
+
+    @Override
+    public int getHeight() {
+        return document.getHeight(id);
+    }
+
+    void setParent(CompoundShape parent) {
+        this.parent = parent;
+    }
+
+    private void boundsChanged() {
+        if (parent != null) {
+            parent.childBoundsChanged(this);
+        }
+    }
+
+    List<Shape> getChildren() {
+        return document.children(id);
+    }
+
+    // Anchored on the node's own position, which a compound keeps even when empty
+    @Override
+    public void drag() {
+        PersistentDocument.Node node = document.node(id);
+        dx = node.x;
+        dy = node.y;
+    }
+
+    @Override
+    public void moveTo(int x, int y) {
+        PersistentDocument.Node node = document.node(id);
+        document.moveBy(id, dx + x - node.x, dy + y - node.y);
+        boundsChanged();
+    }
+
+    @Override
+    public void moveBy(int x, int y) {
+        document.moveBy(id, x, y);
+        boundsChanged();
+    }
+
+    @Override
+    public void drop() {
+        moveTo(0, 0);
+    }
+
+    @Override
+    public boolean isInsideBounds(int x, int y) {
+        return document.isInsideBounds(id, x, y);
+    }
+
+    @Override
+    public Color getColor() {
+        return document.getColor(id);
+    }
+
+    @Override
+    public void setColor(Color color) {
+        document.setColor(id, color);
+    }
+
+    @Override
+    public void select() {
+        document.select(id);
+        if (parent != null) {
+            parent.childSelectionChanged(this);
+        }
+    }
+
+    @Override
+    public void unSelect() {
+        document.unSelect(id);
+        if (parent != null) {
+            parent.childSelectionChanged(this);
+        }
+    }
+
+    @Override
+    public boolean isSelected() {
+        return document.isSelected(id);
+    }
+
+    @Override
+    public void paint(Graphics graphics) {
+        document.paint(id, graphics);
+    }
+}
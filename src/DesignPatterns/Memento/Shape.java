@@ -4,6 +4,7 @@ import java.awt.*;
 import java.io.Serializable;
 
 public interface Shape extends Serializable {
+    int getId();
     int getX();
     int getY();
     int getWidth();
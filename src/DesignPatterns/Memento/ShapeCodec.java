@@ -0,0 +1,200 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary snapshots of a shape tree, replacing Java serialization
+ * plus Base64. Every shape is a type tag, its id, a selection flag and its
+ * color as packed ARGB; leaves add zigzag varint coordinates and sizes,
+ * compounds a varint child count followed by the children.
+ *
+ * Encoding can be split in two: {@link #capture} copies the tree into flat
+ * int columns, which is all that must happen while the tree holds still,
+ * and {@link #encode(Capture)} packs that copy on any thread. A codec
+ * instance is not thread-safe; give each thread its own.
+ */
+class ShapeCodec {
+    private static final byte CIRCLE = 1;
+    private static final byte DOT = 2;
+    private static final byte OVAL = 3;
+    private static final byte RECTANGLE = 4;
+    private static final byte COMPOUND = 5;
+
+    // Tag, flags, color and up to five varints
+    private static final int MAX_SHAPE_BYTES = 2 + 4 + 5 * 5;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    // Size of the last capture, to allocate the next one right the first time
+    private int captureHint = 1024;
+
+    /**
+     * A shape tree flattened in depth-first order. Per shape: tag and
+     * selection flag, id, color; then child count for compounds, or x, y,
+     * width, height for leaves.
+     */
+    static final class Capture {
+        private final int[] words;
+        private final int length;
+
+        private Capture(int[] words, int length) {
+            this.words = words;
+            this.length = length;
+        }
+    }
+
+    byte[] encode(CompoundShape root) {
+        return encode(capture(root));
+    }
+
+    Capture capture(CompoundShape root) {
+        int[] words = new int[captureHint];
+        int[] length = {0};
+        words = capture(root, words, length);
+        captureHint = Math.max(1024, length[0] + length[0] / 8);
+        return new Capture(words, length[0]);
+    }
+
+    private static int[] capture(Shape shape, int[] words, int[] length) {
+        int at = length[0];
+        if (words.length - at < 7) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        words[at++] = tagOf(shape) | (shape.isSelected() ? 1 << 8 : 0);
+        words[at++] = shape.getId();
+        words[at++] = shape.getColor() == null ? 0 : shape.getColor().getRGB();
+        if (shape instanceof CompoundShape) {
+            List<Shape> children = ((CompoundShape) shape).getChildren();
+            words[at++] = children.size();
+            length[0] = at;
+            for (Shape child : children) {
+                words = capture(child, words, length);
+            }
+            return words;
+        }
+        words[at++] = shape.getX();
+        words[at++] = shape.getY();
+        words[at++] = shape.getWidth();
+        words[at++] = shape.getHeight();
+        length[0] = at;
+        return words;
+    }
+
+    byte[] encode(Capture capture) {
+        buffer.clear();
+        int[] words = capture.words;
+        int at = 0;
+        while (at < capture.length) {
+            if (buffer.remaining() < MAX_SHAPE_BYTES) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            byte tag = (byte) words[at];
+            buffer.put(tag);
+            writeVarint(words[at + 1]);
+            buffer.put((byte) (words[at] >>> 8));
+            buffer.putInt(words[at + 2]);
+            if (tag == COMPOUND) {
+                writeVarint(words[at + 3]);
+                at += 4;
+                continue;
+            }
+            writeVarint(zigzag(words[at + 3]));
+            writeVarint(zigzag(words[at + 4]));
+            if (tag == CIRCLE) {
+                writeVarint(words[at + 5] / 2);
+            } else if (tag == OVAL || tag == RECTANGLE) {
+                writeVarint(words[at + 5]);
+                writeVarint(words[at + 6]);
+            }
+            at += 7;
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    CompoundShape decode(byte[] snapshot) {
+        ByteBuffer in = ByteBuffer.wrap(snapshot);
+        Shape root = read(in);
+        if (!(root instanceof CompoundShape)) {
+            throw new IllegalArgumentException("Snapshot does not start with a compound shape");
+        }
+        return (CompoundShape) root;
+    }
+
+    private static Shape read(ByteBuffer in) {
+        byte tag = in.get();
+        int id = readVarint(in);
+        boolean selected = in.get() != 0;
+        Color color = new Color(in.getInt(), true);
+        BaseShape shape;
+        if (tag == COMPOUND) {
+            int children = readVarint(in);
+            CompoundShape compound = new CompoundShape();
+            for (int i = 0; i < children; i++) {
+                compound.add(read(in));
+            }
+            compound.restoreColor(color);
+            shape = compound;
+        } else {
+            int x = unzigzag(readVarint(in));
+            int y = unzigzag(readVarint(in));
+            switch (tag) {
+                case CIRCLE -> shape = new Circle(x, y, readVarint(in), color);
+                case DOT -> shape = new Dot(x, y, color);
+                case OVAL -> shape = new Oval(x, y, readVarint(in), readVarint(in), color);
+                case RECTANGLE -> shape = new Rectangle(x, y, readVarint(in), readVarint(in), color);
+                default -> throw new IllegalArgumentException("Unknown shape tag " + tag);
+            }
+        }
+        shape.setId(id);
+        if (selected) {
+            shape.select();
+        }
+        return shape;
+    }
+
+    private static byte tagOf(Shape shape) {
+        if (shape instanceof CompoundShape) {
+            return COMPOUND;
+        } else if (shape instanceof Circle) {
+            return CIRCLE;
+        } else if (shape instanceof Dot) {
+            return DOT;
+        } else if (shape instanceof Oval) {
+            return OVAL;
+        } else if (shape instanceof Rectangle) {
+            return RECTANGLE;
+        }
+        throw new IllegalArgumentException("Unsupported shape: " + shape.getClass().getName());
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
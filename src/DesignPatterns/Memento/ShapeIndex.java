@@ -0,0 +1,294 @@
+package DesignPatterns.Memento;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounding volume hierarchy over the children of a compound, for hit tests
+ * and marquee queries in O(log n). It is bulk-loaded with sort-tile-recursive
+ * packing; when a child moves only its box and the boxes above it are
+ * refitted, so the tree shape stays fixed until the child list changes.
+ */
+class ShapeIndex {
+    private static final int BRANCH = 16;
+
+    private final int size;
+    // Slots 0..size-1 hold the children in tree order, the nodes come after them
+    private final Shape[] shapes;
+    // Position of each slot's child in the compound's child list; for nodes,
+    // the earliest position below them. Lets a hit test skip subtrees that
+    // cannot beat the hit it already has.
+    private final int[] order;
+    private final Shape[] byOrder;
+    private final Map<Shape, Integer> slots;
+    private final int[] minX, minY, maxX, maxY;
+    private final int[] parent;
+    // Per node: the contiguous range of slots below it
+    private final int[] first, count;
+    private final int root;
+    private final int[] stack;
+    // List positions found by the last query, reused so queries do not allocate
+    private int[] matched = new int[16];
+
+    private final boolean[] moved;
+    private int[] pending = new int[16];
+    private int pendingCount;
+
+    ShapeIndex(List<Shape> children) {
+        size = children.size();
+        int nodes = 0;
+        int depth = 1;
+        for (int level = size; level > 1; level = (level + BRANCH - 1) / BRANCH) {
+            nodes += (level + BRANCH - 1) / BRANCH;
+            depth++;
+        }
+        int total = size + nodes;
+        shapes = new Shape[size];
+        order = new int[total];
+        byOrder = children.toArray(new Shape[0]);
+        slots = new IdentityHashMap<>(size);
+        minX = new int[total];
+        minY = new int[total];
+        maxX = new int[total];
+        maxY = new int[total];
+        parent = new int[total];
+        first = new int[nodes];
+        count = new int[nodes];
+        stack = new int[depth * BRANCH + 1];
+        moved = new boolean[size];
+
+        Integer[] sorted = tileOrder(children);
+        for (int slot = 0; slot < size; slot++) {
+            int position = sorted[slot];
+            shapes[slot] = byOrder[position];
+            order[slot] = position;
+            slots.put(shapes[slot], slot);
+            readBounds(slot);
+        }
+
+        int levelStart = 0;
+        int levelSize = size;
+        int next = size;
+        while (levelSize > 1) {
+            int nextStart = next;
+            for (int from = levelStart; from < levelStart + levelSize; from += BRANCH) {
+                int node = next++;
+                first[node - size] = from;
+                count[node - size] = Math.min(BRANCH, levelStart + levelSize - from);
+                order[node] = Integer.MAX_VALUE;
+                for (int i = from; i < from + count[node - size]; i++) {
+                    parent[i] = node;
+                    order[node] = Math.min(order[node], order[i]);
+                }
+                union(node);
+            }
+            levelStart = nextStart;
+            levelSize = next - nextStart;
+        }
+        root = size == 0 ? -1 : next - 1;
+        if (root >= 0) {
+            parent[root] = -1;
+        }
+    }
+
+    // Sort-tile-recursive: vertical slices by x, then each slice by y.
+    private Integer[] tileOrder(List<Shape> children) {
+        int[] centerX = new int[size];
+        int[] centerY = new int[size];
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            Shape child = children.get(i);
+            centerX[i] = child.getX() * 2 + child.getWidth();
+            centerY[i] = child.getY() * 2 + child.getHeight();
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.comparingInt(i -> centerX[i]));
+        int leaves = (size + BRANCH - 1) / BRANCH;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * BRANCH;
+        for (int from = 0; from < size; from += sliceSize) {
+            Arrays.sort(sorted, from, Math.min(size, from + sliceSize), Comparator.comparingInt(i -> centerY[i]));
+        }
+        return sorted;
+    }
+
+    private void readBounds(int slot) {
+        Shape shape = shapes[slot];
+        minX[slot] = shape.getX();
+        minY[slot] = shape.getY();
+        maxX[slot] = minX[slot] + shape.getWidth();
+        maxY[slot] = minY[slot] + shape.getHeight();
+    }
+
+    // Recomputes a node's box from its children; false if it did not change.
+    private boolean union(int node) {
+        int from = first[node - size];
+        int to = from + count[node - size];
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            x0 = Math.min(x0, minX[i]);
+            y0 = Math.min(y0, minY[i]);
+            x1 = Math.max(x1, maxX[i]);
+            y1 = Math.max(y1, maxY[i]);
+        }
+        if (x0 == minX[node] && y0 == minY[node] && x1 == maxX[node] && y1 == maxY[node]) {
+            return false;
+        }
+        minX[node] = x0;
+        minY[node] = y0;
+        maxX[node] = x1;
+        maxY[node] = y1;
+        return true;
+    }
+
+    /**
+     * Notes that {@code child} moved. Its box is refitted lazily by the
+     * next query, so a drag does not pay for every intermediate position.
+     */
+    void moved(Shape child) {
+        Integer slot = slots.get(child);
+        if (slot == null || moved[slot]) {
+            return;
+        }
+        moved[slot] = true;
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = slot;
+    }
+
+    /**
+     * Marks every child as moved, for when they all may have changed at once.
+     */
+    void movedAll() {
+        for (Shape shape : shapes) {
+            moved(shape);
+        }
+    }
+
+    private void refit() {
+        for (int i = 0; i < pendingCount; i++) {
+            int slot = pending[i];
+            moved[slot] = false;
+            readBounds(slot);
+            int node = parent[slot];
+            while (node >= 0 && union(node)) {
+                node = parent[node];
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * The box around every child. Only the boxes above moved children are
+     * refitted, so after a move this costs O(log n) instead of a scan.
+     * There must be at least one child.
+     */
+    int getMinX() {
+        refit();
+        return minX[root];
+    }
+
+    int getMinY() {
+        refit();
+        return minY[root];
+    }
+
+    int getMaxX() {
+        refit();
+        return maxX[root];
+    }
+
+    int getMaxY() {
+        refit();
+        return maxY[root];
+    }
+
+    /**
+     * The first child, in child list order, containing ({@code x}, {@code y}).
+     */
+    Shape firstAt(int x, int y) {
+        refit();
+        if (root < 0) {
+            return null;
+        }
+        int best = Integer.MAX_VALUE;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int box = stack[--top];
+            if (order[box] >= best || x < minX[box] || x > maxX[box] || y < minY[box] || y > maxY[box]) {
+                continue;
+            }
+            if (box < size) {
+                if (shapes[box].isInsideBounds(x, y)) {
+                    best = order[box];
+                }
+            } else {
+                for (int i = first[box - size], end = i + count[box - size]; i < end; i++) {
+                    stack[top++] = i;
+                }
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : byOrder[best];
+    }
+
+    /**
+     * Children whose bounds lie entirely inside the given rectangle, in
+     * child list order.
+     */
+    List<Shape> within(int x, int y, int width, int height) {
+        int matches = query(x, y, width, height, true);
+        List<Shape> found = new ArrayList<>(matches);
+        for (int i = 0; i < matches; i++) {
+            found.add(match(i));
+        }
+        return found;
+    }
+
+    /**
+     * Finds the children whose bounds lie inside the given rectangle, or
+     * with {@code contained} false merely touch it. Returns how many there
+     * are; {@link #match} reads them back in child list order until the
+     * next query.
+     */
+    int query(int x, int y, int width, int height, boolean contained) {
+        refit();
+        if (root < 0) {
+            return 0;
+        }
+        int right = x + width;
+        int bottom = y + height;
+        int matches = 0;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int box = stack[--top];
+            if (maxX[box] < x || minX[box] > right || maxY[box] < y || minY[box] > bottom) {
+                continue;
+            }
+            if (box < size) {
+                if (!contained || (minX[box] >= x && maxX[box] <= right && minY[box] >= y && maxY[box] <= bottom)) {
+                    if (matches == matched.length) {
+                        matched = Arrays.copyOf(matched, matches * 2);
+                    }
+                    matched[matches++] = order[box];
+                }
+            } else {
+                for (int i = first[box - size], end = i + count[box - size]; i < end; i++) {
+                    stack[top++] = i;
+                }
+            }
+        }
+        Arrays.sort(matched, 0, matches);
+        return matches;
+    }
+
+    Shape match(int i) {
+        return byOrder[matched[i]];
+    }
+}
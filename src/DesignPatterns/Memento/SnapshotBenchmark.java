@@ -0,0 +1,113 @@
+package DesignPatterns.Memento;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Compares snapshot size and encode/decode latency of Java serialization
+ * plus Base64 (the previous Editor.backup) with {@link ShapeCodec}.
+ */
+public class SnapshotBenchmark {
+    static int[] CANVAS_SHAPES = {10000, 100000, 1000000};
+    static int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %14s %14s %12s %12s %12s %12s%n", "shapes",
+                "serial bytes", "codec bytes", "serial enc", "codec enc", "serial dec", "codec dec");
+        ShapeCodec codec = new ShapeCodec();
+        for (int shapes : CANVAS_SHAPES) {
+            CompoundShape canvas = syntheticCanvas(shapes, 42);
+
+            String serialized = null;
+            byte[] encoded = null;
+            long serialEncode = Long.MAX_VALUE, codecEncode = Long.MAX_VALUE;
+            long serialDecode = Long.MAX_VALUE, codecDecode = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                serialized = serialize(canvas);
+                serialEncode = Math.min(serialEncode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                encoded = codec.encode(canvas);
+                codecEncode = Math.min(codecEncode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                deserialize(serialized);
+                serialDecode = Math.min(serialDecode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                codec.decode(encoded);
+                codecDecode = Math.min(codecDecode, System.nanoTime() - start);
+            }
+            System.out.printf("%10d %14d %14d %10.1fms %10.1fms %10.1fms %10.1fms%n", shapes,
+                    serialized.length(), encoded.length,
+                    serialEncode / 1e6, codecEncode / 1e6, serialDecode / 1e6, codecDecode / 1e6);
+        }
+    }
+
+    /**
+     * A flat canvas of mixed shapes with every tenth slot a small compound.
+     */
+    static CompoundShape syntheticCanvas(int shapes, long seed) {
+        Random random = new Random(seed);
+        CompoundShape canvas = new CompoundShape();
+        int count = 0;
+        while (count < shapes) {
+            if (count % 10 == 9) {
+                canvas.add(new CompoundShape(randomShape(random), randomShape(random)));
+                count += 3;
+            } else {
+                canvas.add(randomShape(random));
+                count++;
+            }
+        }
+        return canvas;
+    }
+
+    private static Shape randomShape(Random random) {
+        int x = random.nextInt(2000);
+        int y = random.nextInt(2000);
+        Color color = new Color(random.nextInt(0x1000000));
+        switch (random.nextInt(4)) {
+            case 0:
+                return new Circle(x, y, 5 + random.nextInt(50), color);
+            case 1:
+                return new Dot(x, y, color);
+            case 2:
+                return new Oval(x, y, 5 + random.nextInt(80), 5 + random.nextInt(50), color);
+            default:
+                return new Rectangle(x, y, 5 + random.nextInt(100), 5 + random.nextInt(100), color);
+        }
+    }
+
+    private static String serialize(CompoundShape shapes) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(shapes);
+            oos.close();
+            return Base64.getEncoder().encodeToString(baos.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static CompoundShape deserialize(String state) {
+        try {
+            byte[] data = Base64.getDecoder().decode(state);
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+            return (CompoundShape) ois.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
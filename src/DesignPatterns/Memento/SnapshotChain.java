@@ -0,0 +1,353 @@
+package DesignPatterns.Memento;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * History tier that stores each snapshot as a binary diff against the one
+ * appended before it. Consecutive snapshots differ only in the few shapes
+ * the commands between them touched, so a diff is a handful of copy runs
+ * and short literals. Deflater can pack each entry further.
+ *
+ * Every {@code keyframeInterval}-th snapshot, and any snapshot that does
+ * not diff well, is stored whole, so a read applies a bounded number of
+ * diffs. Reads happen only on undo and redo. The snapshots decoded on the
+ * way are kept until a read lands in another keyframe's group, so walking
+ * back through a group decodes each snapshot once.
+ *
+ * Entries can be spilled to a {@link MementoJournal} to keep history within
+ * its byte budget; reads page them back in.
+ */
+class SnapshotChain {
+    static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    private static final byte KEYFRAME = 0;
+    private static final byte DIFF = 1;
+    // Bytes that must match before a diff resumes copying
+    private static final int ANCHOR = 8;
+    // How far a resync looks ahead in the new snapshot, and how far the old
+    // one may have shifted, as when a varint grew or an id was inserted
+    private static final int MAX_LITERAL = 256;
+    private static final int MAX_SHIFT = 16;
+
+    private final boolean deflate;
+    private final int keyframeInterval;
+    private final Deflater deflater;
+    private final Inflater inflater;
+
+    // Null once spilled
+    private byte[][] entries = new byte[16][];
+    private byte[] kinds = new byte[16];
+    private int[] storedSizes = new int[16];
+    private long[] spillOffsets = new long[16];
+    private MementoJournal journal;
+    // Length of each entry's diff or snapshot before deflating
+    private int[] inflatedSizes = new int[16];
+    private int[] rawSizes = new int[16];
+    private int count;
+    private int sinceKeyframe;
+    // The newest snapshot in full, to diff the next one against
+    private byte[] last;
+    private long rawBytes;
+    private long storedBytes;
+
+    private int cachedFrom = -1;
+    private int cachedCount;
+    private byte[][] cache;
+
+    private ByteBuffer diff = ByteBuffer.allocate(4096);
+    private byte[] packed = new byte[4096];
+
+    SnapshotChain(boolean deflate) {
+        this(deflate, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    SnapshotChain(boolean deflate, int keyframeInterval) {
+        this.deflate = deflate;
+        this.keyframeInterval = keyframeInterval;
+        this.deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.inflater = deflate ? new Inflater() : null;
+        this.cache = new byte[keyframeInterval][];
+    }
+
+    /**
+     * Stores {@code snapshot} and returns the index to read it back from.
+     */
+    int append(byte[] snapshot) {
+        if (count == entries.length) {
+            entries = Arrays.copyOf(entries, count * 2);
+            kinds = Arrays.copyOf(kinds, count * 2);
+            storedSizes = Arrays.copyOf(storedSizes, count * 2);
+            spillOffsets = Arrays.copyOf(spillOffsets, count * 2);
+            inflatedSizes = Arrays.copyOf(inflatedSizes, count * 2);
+            rawSizes = Arrays.copyOf(rawSizes, count * 2);
+        }
+        if (last == null && count > 0) {
+            last = read(count - 1);
+        }
+        byte kind = KEYFRAME;
+        byte[] body = snapshot;
+        int bodyLength = snapshot.length;
+        if (last != null && sinceKeyframe + 1 < keyframeInterval) {
+            diff(last, snapshot);
+            // Not worth a diff if the snapshots have little in common
+            if (diff.position() < snapshot.length / 2) {
+                kind = DIFF;
+                body = diff.array();
+                bodyLength = diff.position();
+            }
+        }
+        sinceKeyframe = kind == KEYFRAME ? 0 : sinceKeyframe + 1;
+        inflatedSizes[count] = bodyLength;
+        rawSizes[count] = snapshot.length;
+        entries[count] = pack(kind, body, bodyLength);
+        kinds[count] = kind;
+        storedSizes[count] = entries[count].length;
+        rawBytes += snapshot.length;
+        storedBytes += storedSizes[count];
+        last = snapshot;
+        return count++;
+    }
+
+    /**
+     * The snapshot stored at {@code index}. Callers must not modify it.
+     */
+    byte[] read(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No snapshot " + index + " in a chain of " + count);
+        }
+        int keyframe = index;
+        while (kinds[keyframe] != KEYFRAME) {
+            keyframe--;
+        }
+        if (cachedFrom != keyframe) {
+            cachedFrom = keyframe;
+            cachedCount = 0;
+        }
+        if (cachedCount == 0) {
+            cache[0] = unpack(keyframe);
+            cachedCount = 1;
+        }
+        while (cachedFrom + cachedCount <= index) {
+            cache[cachedCount] = patch(cache[cachedCount - 1], unpack(cachedFrom + cachedCount));
+            cachedCount++;
+        }
+        return cache[index - cachedFrom];
+    }
+
+    /**
+     * Forgets the snapshots from {@code index} on, as when history drops its
+     * redo tail.
+     */
+    void truncate(int index) {
+        if (index >= count) {
+            return;
+        }
+        for (int i = index; i < count; i++) {
+            storedBytes -= storedSizes[i];
+            rawBytes -= rawSizes[i];
+            entries[i] = null;
+        }
+        count = index;
+        last = null;
+        if (cachedFrom >= count) {
+            cachedFrom = -1;
+            cachedCount = 0;
+        } else if (cachedFrom >= 0) {
+            cachedCount = Math.min(cachedCount, count - cachedFrom);
+        }
+        sinceKeyframe = 0;
+        for (int i = count - 1; i >= 0 && kinds[i] != KEYFRAME; i--) {
+            sinceKeyframe++;
+        }
+    }
+
+    /**
+     * Moves the entry at {@code index} to {@code journal} and returns where it
+     * went there. The chain then holds no bytes of it on the heap.
+     */
+    long spill(int index, MementoJournal journal) {
+        if (entries[index] != null) {
+            this.journal = journal;
+            spillOffsets[index] = journal.append(entries[index]);
+            entries[index] = null;
+        }
+        return spillOffsets[index];
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Bytes {@code index} takes up in the chain.
+     */
+    int storedSize(int index) {
+        return storedSizes[index];
+    }
+
+    /**
+     * Bytes the snapshots would take up stored whole.
+     */
+    long getRawBytes() {
+        return rawBytes;
+    }
+
+    long getStoredBytes() {
+        return storedBytes;
+    }
+
+    double getCompressionRatio() {
+        return storedBytes == 0 ? 1 : (double) rawBytes / storedBytes;
+    }
+
+    // Diff format: varint length of the new snapshot, then ops until it is
+    // complete. Each op copies a run from the old snapshot, inserts a
+    // literal, and moves the old snapshot's cursor past the literal plus a
+    // signed shift.
+    private void diff(byte[] base, byte[] target) {
+        diff.clear();
+        writeVarint(target.length);
+        int i = 0;
+        int j = 0;
+        while (j < target.length) {
+            int copy = 0;
+            while (j + copy < target.length && i + copy < base.length && base[i + copy] == target[j + copy]) {
+                copy++;
+            }
+            i += copy;
+            j += copy;
+            int literal = target.length - j;
+            int shift = 0;
+            search:
+            for (int ahead = 1; ahead <= Math.min(MAX_LITERAL, target.length - j - ANCHOR); ahead++) {
+                for (int s = 0; s <= 2 * MAX_SHIFT; s++) {
+                    // Try no shift first, then alternate outwards
+                    int candidate = (s & 1) == 0 ? s / 2 : -(s + 1) / 2;
+                    if (matches(base, i + ahead + candidate, target, j + ahead)) {
+                        literal = ahead;
+                        shift = candidate;
+                        break search;
+                    }
+                }
+                if (ahead == MAX_LITERAL) {
+                    literal = ahead;
+                }
+            }
+            ensureDiff(15 + literal);
+            writeVarint(copy);
+            writeVarint(literal);
+            diff.put(target, j, literal);
+            writeVarint((shift << 1) ^ (shift >> 31));
+            // A literal forced without an anchor may run past the old snapshot
+            i = Math.min(base.length, i + literal + shift);
+            j += literal;
+        }
+    }
+
+    private static boolean matches(byte[] base, int i, byte[] target, int j) {
+        if (i < 0 || i + ANCHOR > base.length) {
+            return false;
+        }
+        for (int k = 0; k < ANCHOR; k++) {
+            if (base[i + k] != target[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] patch(byte[] base, byte[] diff) {
+        ByteBuffer in = ByteBuffer.wrap(diff);
+        byte[] target = new byte[readVarint(in)];
+        int i = 0;
+        int j = 0;
+        while (j < target.length) {
+            int copy = readVarint(in);
+            System.arraycopy(base, i, target, j, copy);
+            i += copy;
+            j += copy;
+            int literal = readVarint(in);
+            in.get(target, j, literal);
+            int shift = readVarint(in);
+            i = Math.min(base.length, i + literal + ((shift >>> 1) ^ -(shift & 1)));
+            j += literal;
+        }
+        return target;
+    }
+
+    private byte[] pack(byte kind, byte[] body, int length) {
+        if (!deflate) {
+            byte[] entry = new byte[length + 1];
+            entry[0] = kind;
+            System.arraycopy(body, 0, entry, 1, length);
+            return entry;
+        }
+        deflater.reset();
+        deflater.setInput(body, 0, length);
+        deflater.finish();
+        int size = 1;
+        while (!deflater.finished()) {
+            if (size == packed.length) {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            size += deflater.deflate(packed, size, packed.length - size);
+        }
+        packed[0] = kind;
+        return Arrays.copyOf(packed, size);
+    }
+
+    // The entry's diff or snapshot, inflated if need be.
+    private byte[] unpack(int index) {
+        byte[] entry = entries[index] != null ? entries[index] : journal.read(spillOffsets[index], storedSizes[index]);
+        if (!deflate) {
+            return Arrays.copyOfRange(entry, 1, entry.length);
+        }
+        byte[] body = new byte[inflatedSizes[index]];
+        inflater.reset();
+        inflater.setInput(entry, 1, entry.length - 1);
+        try {
+            int read = 0;
+            while (read < body.length) {
+                int n = inflater.inflate(body, read, body.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Snapshot " + index + " is truncated");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Snapshot " + index + " is corrupt", e);
+        }
+        return body;
+    }
+
+    private void ensureDiff(int bytes) {
+        if (diff.remaining() < bytes) {
+            diff = ByteBuffer.allocate(Math.max(diff.capacity() * 2, diff.position() + bytes)).put(diff.flip());
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensureDiff(5);
+        while ((value & ~0x7F) != 0) {
+            diff.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        diff.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in snapshot diff");
+    }
+}
@@ -0,0 +1,9 @@
+package DesignPatterns.Memento;
+
+/**
+ * A command that records a {@link Delta} while executing, so history does
+ * not need a full snapshot to undo it.
+ */
+public interface UndoableCommand extends Command {
+    Delta getDelta();
+}